@@ -0,0 +1,79 @@
+package com.waadsoft.testing.user;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Outcome of {@link UserRepositoryImpl#bootstrap(java.util.Collection)}: how long the primary index took, and when
+ * the repository became fully ready to serve every lookup.
+ */
+public final class BootstrapResult {
+
+    private final int userCount;
+    private final Duration primaryIndexTime;
+    private final CompletableFuture<Duration> timeToReady;
+
+    BootstrapResult(int userCount, Duration primaryIndexTime, CompletableFuture<Duration> timeToReady) {
+        this.userCount = userCount;
+        this.primaryIndexTime = primaryIndexTime;
+        this.timeToReady = timeToReady;
+    }
+
+    public int getUserCount() {
+        return userCount;
+    }
+
+    /**
+     * Time until {@code findById} could be served.
+     */
+    public Duration getPrimaryIndexTime() {
+        return primaryIndexTime;
+    }
+
+    /**
+     * Completes with the time until every index was built, or exceptionally if building them failed.
+     */
+    public CompletableFuture<Duration> getTimeToReady() {
+        return timeToReady;
+    }
+
+    public boolean isReady() {
+        return timeToReady.isDone() && !timeToReady.isCompletedExceptionally();
+    }
+
+    public Duration awaitReady() {
+        try {
+            return timeToReady.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        String ready = isReady() ? timeToReady.join().toString() : timeToReady.isDone() ? "failed" : "pending";
+        return String.format("BootstrapResult{users=%d, primaryIndexTime=%s, timeToReady=%s}",
+                userCount, primaryIndexTime, ready);
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
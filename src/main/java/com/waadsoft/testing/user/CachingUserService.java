@@ -0,0 +1,157 @@
+package com.waadsoft.testing.user;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.isNull;
+
+/**
+ * {@link UserService} that serves single-user lookups from an {@link OffHeapUserCache} and fills it from the wrapped
+ * service on a miss. Writes go to the wrapped service first and then invalidate the users they touched; deletes by
+ * email or username resolve the affected IDs beforehand since cached aliases are not authoritative.
+ * <p>
+ * Writes made through this service are serialized, so that no other write can hand an email or username to another
+ * user between a delete resolving it and deleting it. Writes made directly on the wrapped service are not seen.
+ */
+public class CachingUserService extends ForwardingUserService {
+    private final OffHeapUserCache cache;
+
+    public CachingUserService(UserService userService, OffHeapUserCache cache) {
+        super(userService);
+        this.cache = cache;
+    }
+
+    public OffHeapUserCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public synchronized User addUser(User user) {
+        return delegate().addUser(user);
+    }
+
+    @Override
+    public synchronized User updateUser(User user) {
+        try {
+            return delegate().updateUser(user);
+        } finally {
+            if (!isNull(user)) {
+                cache.invalidate(user.getUserId());
+            }
+        }
+    }
+
+    @Override
+    public Optional<User> getUserById(Integer userId) {
+        Optional<User> cached = cache.getById(userId);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        long stamp = cache.stamp();
+        Optional<User> user = delegate().getUserById(userId);
+        user.ifPresent(found -> cache.put(found, stamp));
+        return user;
+    }
+
+    @Override
+    public Optional<User> getUserByEmail(String email) {
+        Optional<User> cached = cache.getByEmail(email);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        long stamp = cache.stamp();
+        Optional<User> user = delegate().getUserByEmail(email);
+        user.ifPresent(found -> cache.put(found, stamp));
+        return user;
+    }
+
+    @Override
+    public Optional<User> getUserByUsername(String username) {
+        Optional<User> cached = cache.getByUsername(username);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        long stamp = cache.stamp();
+        Optional<User> user = delegate().getUserByUsername(username);
+        user.ifPresent(found -> cache.put(found, stamp));
+        return user;
+    }
+
+    @Override
+    public synchronized void deleteUser(User user) {
+        if (isNull(user)) {
+            delegate().deleteUser(user);
+            return;
+        }
+        Optional<User> byUsername = delegate().getUserByUsername(user.getUsername());
+        Optional<User> byEmail = delegate().getUserByEmail(user.getEmail());
+        try {
+            delegate().deleteUser(user);
+        } finally {
+            cache.invalidate(user.getUserId());
+            byUsername.ifPresent(found -> cache.invalidate(found.getUserId()));
+            byEmail.ifPresent(found -> cache.invalidate(found.getUserId()));
+        }
+    }
+
+    @Override
+    public synchronized void deleteUserById(Integer userId) {
+        try {
+            delegate().deleteUserById(userId);
+        } finally {
+            cache.invalidate(userId);
+        }
+    }
+
+    @Override
+    public synchronized void deleteUserByEmail(String email) {
+        Optional<User> user = delegate().getUserByEmail(email);
+        try {
+            delegate().deleteUserByEmail(email);
+        } finally {
+            user.ifPresent(found -> cache.invalidate(found.getUserId()));
+        }
+    }
+
+    @Override
+    public synchronized void deleteUserByUsername(String username) {
+        Optional<User> user = delegate().getUserByUsername(username);
+        try {
+            delegate().deleteUserByUsername(username);
+        } finally {
+            user.ifPresent(found -> cache.invalidate(found.getUserId()));
+        }
+    }
+
+    @Override
+    public synchronized void deleteUsersByEmail(Collection<String> emails) {
+        List<User> users = delegate().getUsersByEmail(emails);
+        try {
+            delegate().deleteUsersByEmail(emails);
+        } finally {
+            users.forEach(user -> cache.invalidate(user.getUserId()));
+        }
+    }
+
+    @Override
+    public synchronized void deleteUsersById(Collection<Integer> ids) {
+        try {
+            delegate().deleteUsersById(ids);
+        } finally {
+            if (!isNull(ids)) {
+                ids.forEach(cache::invalidate);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void deleteUsersByUsername(Collection<String> usernames) {
+        List<User> users = delegate().getUsersByUsername(usernames);
+        try {
+            delegate().deleteUsersByUsername(usernames);
+        } finally {
+            users.forEach(user -> cache.invalidate(user.getUserId()));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.waadsoft.testing.user;
+
+import java.util.Iterator;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cold publisher pulling items from a cursor opened at subscription time, only as fast as the subscriber requests them.
+ */
+class CursorPublisher<T> implements Flow.Publisher<T> {
+
+    /**
+     * Lazy source of items, closed once the subscription ends.
+     */
+    interface Cursor<T> extends Iterator<T>, AutoCloseable {
+
+        @Override
+        void close();
+
+        static <T> Cursor<T> of(Iterator<T> iterator) {
+            return of(iterator, () -> {
+            });
+        }
+
+        static <T> Cursor<T> of(Iterator<T> iterator, Runnable onClose) {
+            return new Cursor<>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    return iterator.next();
+                }
+
+                @Override
+                public void close() {
+                    onClose.run();
+                }
+            };
+        }
+    }
+
+    private final Supplier<Cursor<T>> cursorFactory;
+
+    CursorPublisher(Supplier<Cursor<T>> cursorFactory) {
+        this.cursorFactory = cursorFactory;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        subscriber.onSubscribe(new CursorSubscription(subscriber));
+    }
+
+    private final class CursorSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean done;
+        private Cursor<T> cursor;
+
+        private CursorSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            drain();
+        }
+
+        private void drain() {
+            if (pending.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                try {
+                    emit();
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+                if (done) {
+                    closeCursor();
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void emit() {
+            if (done) {
+                return;
+            }
+            if (cursor == null) {
+                cursor = cursorFactory.get();
+            }
+            while (!done && demand.get() > 0 && cursor.hasNext()) {
+                T item = cursor.next();
+                demand.decrementAndGet();
+                subscriber.onNext(item);
+            }
+            if (!done && !cursor.hasNext()) {
+                done = true;
+                closeCursor();
+                subscriber.onComplete();
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (!done) {
+                done = true;
+                closeCursor();
+                subscriber.onError(error);
+            }
+        }
+
+        private void closeCursor() {
+            if (cursor != null) {
+                Cursor<T> closing = cursor;
+                cursor = null;
+                closing.close();
+            }
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
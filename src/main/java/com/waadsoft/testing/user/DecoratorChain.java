@@ -0,0 +1,65 @@
+package com.waadsoft.testing.user;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Stacks decorators around a target, innermost first:
+ * <pre>
+ *   UserService service = DecoratorChain.&lt;UserService&gt;of(userServiceImpl)
+ *           .with(target -> new CachingUserService(target, cache))
+ *           .with(target -> new SchedulingUserService(target, 4, 1000))
+ *           .build();
+ * </pre>
+ * The chain is assembled once; calls then go straight through the layers, usually {@link ForwardingUserRepository}
+ * or {@link ForwardingUserService} subclasses, without any indirection from the chain itself.
+ */
+public final class DecoratorChain<T> {
+
+    private final T target;
+    private final List<Function<? super T, ? extends T>> layers = new ArrayList<>();
+
+    private DecoratorChain(T target) {
+        this.target = requireNonNull(target);
+    }
+
+    public static <T> DecoratorChain<T> of(T target) {
+        return new DecoratorChain<>(target);
+    }
+
+    /**
+     * Wraps everything added so far in {@code layer}.
+     */
+    public DecoratorChain<T> with(Function<? super T, ? extends T> layer) {
+        layers.add(requireNonNull(layer));
+        return this;
+    }
+
+    public T build() {
+        T decorated = target;
+        for (Function<? super T, ? extends T> layer : layers) {
+            decorated = requireNonNull(layer.apply(decorated), "Decorator returned no instance!");
+        }
+        return decorated;
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,107 @@
+package com.waadsoft.testing.user;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Base class for {@link UserService} decorators, the service-side counterpart of {@link ForwardingUserRepository}.
+ */
+public abstract class ForwardingUserService implements UserService {
+    private final UserService delegate;
+
+    protected ForwardingUserService(UserService delegate) {
+        this.delegate = requireNonNull(delegate);
+    }
+
+    protected final UserService delegate() {
+        return delegate;
+    }
+
+    @Override
+    public User addUser(User user) {
+        return delegate.addUser(user);
+    }
+
+    @Override
+    public User updateUser(User user) {
+        return delegate.updateUser(user);
+    }
+
+    @Override
+    public Optional<User> getUserById(Integer userId) {
+        return delegate.getUserById(userId);
+    }
+
+    @Override
+    public Optional<User> getUserByEmail(String email) {
+        return delegate.getUserByEmail(email);
+    }
+
+    @Override
+    public Optional<User> getUserByUsername(String username) {
+        return delegate.getUserByUsername(username);
+    }
+
+    @Override
+    public List<User> getUsers() {
+        return delegate.getUsers();
+    }
+
+    @Override
+    public List<User> getUsersById(Collection<Integer> ids) {
+        return delegate.getUsersById(ids);
+    }
+
+    @Override
+    public List<User> getUsersByEmail(Collection<String> emails) {
+        return delegate.getUsersByEmail(emails);
+    }
+
+    @Override
+    public List<User> getUsersByUsername(Collection<String> usernames) {
+        return delegate.getUsersByUsername(usernames);
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        delegate.deleteUser(user);
+    }
+
+    @Override
+    public void deleteUserById(Integer userId) {
+        delegate.deleteUserById(userId);
+    }
+
+    @Override
+    public void deleteUserByEmail(String email) {
+        delegate.deleteUserByEmail(email);
+    }
+
+    @Override
+    public void deleteUserByUsername(String username) {
+        delegate.deleteUserByUsername(username);
+    }
+
+    @Override
+    public void deleteUsersByEmail(Collection<String> emails) {
+        delegate.deleteUsersByEmail(emails);
+    }
+
+    @Override
+    public void deleteUsersById(Collection<Integer> ids) {
+        delegate.deleteUsersById(ids);
+    }
+
+    @Override
+    public void deleteUsersByUsername(Collection<String> usernames) {
+        delegate.deleteUsersByUsername(usernames);
+    }
+
+    @Override
+    public int countUsers() {
+        return delegate.countUsers();
+    }
+}
@@ -0,0 +1,247 @@
+package com.waadsoft.testing.user;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import static com.waadsoft.testing.user.UserOperationEvent.INDEX;
+import static com.waadsoft.testing.user.UserOperationEvent.SCAN;
+import static com.waadsoft.testing.user.UserOperationEvent.WRITE;
+import static java.util.Objects.isNull;
+
+/**
+ * Emits a {@link UserOperationEvent} around every data operation of the wrapped repository. Access paths are those of
+ * {@link UserRepositoryImpl}, except for queries whose path depends on their plan. {@code explain}, {@code changes},
+ * {@code snapshot} and {@code stats} are forwarded unrecorded.
+ */
+public class JfrUserRepository extends ForwardingUserRepository {
+
+    private static final String LAYER = "repository";
+
+    public JfrUserRepository(UserRepository delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public User add(User user) {
+        return record("add", "none", WRITE, () -> super.add(user), added -> 1);
+    }
+
+    @Override
+    public List<User> addAll(Collection<User> users) {
+        return record("addAll", "none", WRITE, () -> super.addAll(users), List::size);
+    }
+
+    @Override
+    public User update(User user) {
+        return record("update", "id", WRITE, () -> super.update(user), updated -> 1);
+    }
+
+    @Override
+    public User restore(User user) {
+        return record("restore", "id", WRITE, () -> super.restore(user), restored -> 1);
+    }
+
+    @Override
+    public Optional<User> findById(Integer userId) {
+        return record("findById", "id", INDEX, () -> super.findById(userId), JfrUserRepository::sizeOf);
+    }
+
+    @Override
+    public User findByIdOrNull(int userId) {
+        return record("findByIdOrNull", "id", INDEX, () -> super.findByIdOrNull(userId), JfrUserRepository::sizeOf);
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        return record("findByEmail", "email", INDEX, () -> super.findByEmail(email), JfrUserRepository::sizeOf);
+    }
+
+    @Override
+    public User findByEmailOrNull(String email) {
+        return record("findByEmailOrNull", "email", INDEX, () -> super.findByEmailOrNull(email),
+                JfrUserRepository::sizeOf);
+    }
+
+    @Override
+    public Optional<User> findByUsername(String username) {
+        return record("findByUsername", "username", INDEX, () -> super.findByUsername(username),
+                JfrUserRepository::sizeOf);
+    }
+
+    @Override
+    public User findByUsernameOrNull(String username) {
+        return record("findByUsernameOrNull", "username", INDEX, () -> super.findByUsernameOrNull(username),
+                JfrUserRepository::sizeOf);
+    }
+
+    @Override
+    public List<User> findAll() {
+        return record("findAll", "none", SCAN, super::findAll, List::size);
+    }
+
+    @Override
+    public void forEach(Consumer<? super User> action) {
+        int[] visited = {0};
+        record("forEach", "none", SCAN, () -> {
+            super.forEach(user -> {
+                visited[0]++;
+                action.accept(user);
+            });
+            return visited;
+        }, count -> count[0]);
+    }
+
+    @Override
+    public List<User> findAllById(Collection<Integer> ids) {
+        return record("findAllById", "id", INDEX, () -> super.findAllById(ids), List::size);
+    }
+
+    @Override
+    public List<User> findAllByEmail(Collection<String> emails) {
+        return record("findAllByEmail", "email", INDEX, () -> super.findAllByEmail(emails), List::size);
+    }
+
+    @Override
+    public List<User> findAllByUsername(Collection<String> usernames) {
+        return record("findAllByUsername", "username", INDEX, () -> super.findAllByUsername(usernames), List::size);
+    }
+
+    @Override
+    public List<User> findAllByEmailDomain(String domain, int page, int size) {
+        return record("findAllByEmailDomain", "emailDomain", INDEX,
+                () -> super.findAllByEmailDomain(domain, page, size), List::size);
+    }
+
+    @Override
+    public int countByEmailDomain(String domain) {
+        return record("countByEmailDomain", "emailDomain", INDEX, () -> super.countByEmailDomain(domain),
+                Integer::intValue);
+    }
+
+    @Override
+    public List<User> findByIdRange(int from, int to, int limit) {
+        return record("findByIdRange", "id", INDEX, () -> super.findByIdRange(from, to, limit), List::size);
+    }
+
+    @Override
+    public List<User> findByIdRangeDescending(int from, int to, int limit) {
+        return record("findByIdRangeDescending", "id", INDEX, () -> super.findByIdRangeDescending(from, to, limit),
+                List::size);
+    }
+
+    /**
+     * The key type and access path come from the query's plan, which is only worked out while recording.
+     */
+    @Override
+    public List<User> find(UserQuery query) {
+        QueryPlan plan = UserOperationEvent.isRecording() ? explain(query) : null;
+        return record("find", isNull(plan) ? "none" : keyTypeOf(plan), isNull(plan) || plan.isScan() ? SCAN : INDEX,
+                () -> super.find(query), List::size);
+    }
+
+    @Override
+    public void delete(User user) {
+        record("delete", "id", WRITE, () -> super.delete(user), 1);
+    }
+
+    @Override
+    public void deleteById(Integer userId) {
+        record("deleteById", "id", WRITE, () -> super.deleteById(userId), 1);
+    }
+
+    @Override
+    public void deleteByEmail(String email) {
+        record("deleteByEmail", "email", WRITE, () -> super.deleteByEmail(email), 1);
+    }
+
+    @Override
+    public void deleteByUsername(String username) {
+        record("deleteByUsername", "username", WRITE, () -> super.deleteByUsername(username), 1);
+    }
+
+    @Override
+    public void deleteAllByEmail(Collection<String> emails) {
+        record("deleteAllByEmail", "email", WRITE, () -> super.deleteAllByEmail(emails), sizeOf(emails));
+    }
+
+    @Override
+    public void deleteAllById(Collection<Integer> ids) {
+        record("deleteAllById", "id", WRITE, () -> super.deleteAllById(ids), sizeOf(ids));
+    }
+
+    @Override
+    public void deleteAllByUsername(Collection<String> usernames) {
+        record("deleteAllByUsername", "username", WRITE, () -> super.deleteAllByUsername(usernames),
+                sizeOf(usernames));
+    }
+
+    @Override
+    public int count() {
+        return record("count", "none", INDEX, super::count, count -> 1);
+    }
+
+    private static <T> T record(String method, String keyType, String accessPath, Supplier<T> call,
+                                ToIntFunction<? super T> resultSize) {
+        return UserOperationEvent.record(LAYER, method, keyType, accessPath, call, resultSize);
+    }
+
+    private static void record(String method, String keyType, String accessPath, Runnable call, int resultSize) {
+        UserOperationEvent.record(LAYER, method, keyType, accessPath, call, resultSize);
+    }
+
+    private static String keyTypeOf(QueryPlan plan) {
+        switch (plan.getOperator()) {
+            case "IdLookup":
+            case "IdRangeScan":
+                return "id";
+            case "EmailLookup":
+                return "email";
+            case "UsernameLookup":
+                return "username";
+            case "EmailDomainLookup":
+                return "emailDomain";
+            case "Scan":
+            case "ParallelScan":
+                return "none";
+            default:
+                return plan.getInputs().stream()
+                        .map(JfrUserRepository::keyTypeOf)
+                        .distinct()
+                        .collect(Collectors.joining(","));
+        }
+    }
+
+    private static int sizeOf(Optional<User> user) {
+        return user.isPresent() ? 1 : 0;
+    }
+
+    private static int sizeOf(User user) {
+        return isNull(user) ? 0 : 1;
+    }
+
+    private static int sizeOf(Collection<?> keys) {
+        return isNull(keys) ? 0 : keys.size();
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
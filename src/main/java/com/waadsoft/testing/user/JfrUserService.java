@@ -0,0 +1,128 @@
+package com.waadsoft.testing.user;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import static com.waadsoft.testing.user.UserOperationEvent.INDEX;
+import static com.waadsoft.testing.user.UserOperationEvent.SCAN;
+import static com.waadsoft.testing.user.UserOperationEvent.WRITE;
+import static java.util.Objects.isNull;
+
+/**
+ * Emits a {@link UserOperationEvent} around every call of the wrapped service. Stacked over a
+ * {@link JfrUserRepository}, a recording shows how much of each service call the repository accounts for.
+ */
+public class JfrUserService extends ForwardingUserService {
+    private static final String LAYER = "service";
+
+    public JfrUserService(UserService delegate) {
+        super(delegate);
+    }
+
+    @Override
+    public User addUser(User user) {
+        return record("addUser", "none", WRITE, () -> super.addUser(user), added -> 1);
+    }
+
+    @Override
+    public User updateUser(User user) {
+        return record("updateUser", "id", WRITE, () -> super.updateUser(user), updated -> 1);
+    }
+
+    @Override
+    public Optional<User> getUserById(Integer userId) {
+        return record("getUserById", "id", INDEX, () -> super.getUserById(userId), JfrUserService::sizeOf);
+    }
+
+    @Override
+    public Optional<User> getUserByEmail(String email) {
+        return record("getUserByEmail", "email", INDEX, () -> super.getUserByEmail(email), JfrUserService::sizeOf);
+    }
+
+    @Override
+    public Optional<User> getUserByUsername(String username) {
+        return record("getUserByUsername", "username", INDEX, () -> super.getUserByUsername(username),
+                JfrUserService::sizeOf);
+    }
+
+    @Override
+    public List<User> getUsers() {
+        return record("getUsers", "none", SCAN, super::getUsers, List::size);
+    }
+
+    @Override
+    public List<User> getUsersById(Collection<Integer> ids) {
+        return record("getUsersById", "id", INDEX, () -> super.getUsersById(ids), List::size);
+    }
+
+    @Override
+    public List<User> getUsersByEmail(Collection<String> emails) {
+        return record("getUsersByEmail", "email", INDEX, () -> super.getUsersByEmail(emails), List::size);
+    }
+
+    @Override
+    public List<User> getUsersByUsername(Collection<String> usernames) {
+        return record("getUsersByUsername", "username", INDEX, () -> super.getUsersByUsername(usernames), List::size);
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        record("deleteUser", "id", WRITE, () -> super.deleteUser(user), 1);
+    }
+
+    @Override
+    public void deleteUserById(Integer userId) {
+        record("deleteUserById", "id", WRITE, () -> super.deleteUserById(userId), 1);
+    }
+
+    @Override
+    public void deleteUserByEmail(String email) {
+        record("deleteUserByEmail", "email", WRITE, () -> super.deleteUserByEmail(email), 1);
+    }
+
+    @Override
+    public void deleteUserByUsername(String username) {
+        record("deleteUserByUsername", "username", WRITE, () -> super.deleteUserByUsername(username), 1);
+    }
+
+    @Override
+    public void deleteUsersByEmail(Collection<String> emails) {
+        record("deleteUsersByEmail", "email", WRITE, () -> super.deleteUsersByEmail(emails), sizeOf(emails));
+    }
+
+    @Override
+    public void deleteUsersById(Collection<Integer> ids) {
+        record("deleteUsersById", "id", WRITE, () -> super.deleteUsersById(ids), sizeOf(ids));
+    }
+
+    @Override
+    public void deleteUsersByUsername(Collection<String> usernames) {
+        record("deleteUsersByUsername", "username", WRITE, () -> super.deleteUsersByUsername(usernames),
+                sizeOf(usernames));
+    }
+
+    @Override
+    public int countUsers() {
+        return record("countUsers", "none", INDEX, super::countUsers, count -> 1);
+    }
+
+    private static <T> T record(String method, String keyType, String accessPath, Supplier<T> call,
+                                ToIntFunction<? super T> resultSize) {
+        return UserOperationEvent.record(LAYER, method, keyType, accessPath, call, resultSize);
+    }
+
+    private static void record(String method, String keyType, String accessPath, Runnable call, int resultSize) {
+        UserOperationEvent.record(LAYER, method, keyType, accessPath, call, resultSize);
+    }
+
+    private static int sizeOf(Optional<User> user) {
+        return user.isPresent() ? 1 : 0;
+    }
+
+    private static int sizeOf(Collection<?> keys) {
+        return isNull(keys) ? 0 : keys.size();
+    }
+}
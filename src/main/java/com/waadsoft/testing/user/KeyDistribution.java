@@ -0,0 +1,116 @@
+package com.waadsoft.testing.user;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Picks which of {@code keySpace} keys the next operation touches, from {@code 0} (the hottest) upwards.
+ */
+public interface KeyDistribution {
+
+    int keySpace();
+
+    int next(RandomGenerator random);
+
+    static KeyDistribution uniform(int keySpace) {
+        checkKeySpace(keySpace);
+        return new KeyDistribution() {
+            @Override
+            public int keySpace() {
+                return keySpace;
+            }
+
+            @Override
+            public int next(RandomGenerator random) {
+                return random.nextInt(keySpace);
+            }
+        };
+    }
+
+    /**
+     * Zipfian popularity, the key of rank {@code k} being picked with a probability proportional to
+     * {@code 1 / k^theta}. Uses the constant-time sampler of Gray et al., "Quickly Generating Billion-Record Synthetic
+     * Databases", after an O(keySpace) setup.
+     */
+    static KeyDistribution zipfian(int keySpace, double theta) {
+        checkKeySpace(keySpace);
+        if (theta <= 0 || theta >= 1) {
+            throw new IllegalArgumentException("Invalid Zipfian exponent specified!");
+        }
+        double zetaN = 0;
+        for (int rank = 1; rank <= keySpace; rank++) {
+            zetaN += 1 / Math.pow(rank, theta);
+        }
+        double zeta2 = 1 + 1 / Math.pow(2, theta);
+        double alpha = 1 / (1 - theta);
+        double eta = (1 - Math.pow(2.0 / keySpace, 1 - theta)) / (1 - zeta2 / zetaN);
+        double zeta = zetaN;
+        return new KeyDistribution() {
+            @Override
+            public int keySpace() {
+                return keySpace;
+            }
+
+            @Override
+            public int next(RandomGenerator random) {
+                double u = random.nextDouble();
+                double uz = u * zeta;
+                if (uz < 1) {
+                    return 0;
+                }
+                if (uz < zeta2) {
+                    return Math.min(1, keySpace - 1);
+                }
+                return Math.min((int) (keySpace * Math.pow(eta * u - eta + 1, alpha)), keySpace - 1);
+            }
+        };
+    }
+
+    /**
+     * {@code hotOperationFraction} of the operations go uniformly to the first {@code hotKeyFraction} of the keys,
+     * the others uniformly to the rest.
+     */
+    static KeyDistribution hotspot(int keySpace, double hotKeyFraction, double hotOperationFraction) {
+        checkKeySpace(keySpace);
+        if (hotKeyFraction <= 0 || hotKeyFraction >= 1 || hotOperationFraction < 0 || hotOperationFraction > 1) {
+            throw new IllegalArgumentException("Invalid hotspot specified!");
+        }
+        int hotKeys = Math.max(1, (int) (keySpace * hotKeyFraction));
+        return new KeyDistribution() {
+            @Override
+            public int keySpace() {
+                return keySpace;
+            }
+
+            @Override
+            public int next(RandomGenerator random) {
+                if (hotKeys == keySpace || random.nextDouble() < hotOperationFraction) {
+                    return random.nextInt(hotKeys);
+                }
+                return hotKeys + random.nextInt(keySpace - hotKeys);
+            }
+        };
+    }
+
+    private static void checkKeySpace(int keySpace) {
+        if (keySpace <= 0) {
+            throw new IllegalArgumentException("Invalid key space specified!");
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
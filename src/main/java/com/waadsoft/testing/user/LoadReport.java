@@ -0,0 +1,92 @@
+package com.waadsoft.testing.user;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Outcome of a {@link UserLoadGenerator} run. Response times are measured from when each operation was scheduled to
+ * start, so they include the time it spent waiting behind slow ones (no coordinated omission). Service times only
+ * cover the call itself.
+ */
+public final class LoadReport {
+
+    private final long operations;
+    private final long errors;
+    private final Duration elapsed;
+    private final LatencyHistogram responseTimes;
+    private final LatencyHistogram serviceTimes;
+    private final Duration interval;
+    private final List<Long> operationsPerInterval;
+
+    LoadReport(long operations, long errors, Duration elapsed, LatencyHistogram responseTimes,
+               LatencyHistogram serviceTimes, Duration interval, List<Long> operationsPerInterval) {
+        this.operations = operations;
+        this.errors = errors;
+        this.elapsed = elapsed;
+        this.responseTimes = responseTimes;
+        this.serviceTimes = serviceTimes;
+        this.interval = interval;
+        this.operationsPerInterval = List.copyOf(operationsPerInterval);
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    public double getThroughput() {
+        return elapsed.isZero() ? 0 : operations * 1e9 / elapsed.toNanos();
+    }
+
+    public LatencyHistogram getResponseTimes() {
+        return responseTimes;
+    }
+
+    public LatencyHistogram getServiceTimes() {
+        return serviceTimes;
+    }
+
+    public Duration getInterval() {
+        return interval;
+    }
+
+    /**
+     * Completed operations in each consecutive {@link #getInterval()} of the run.
+     */
+    public List<Long> getOperationsPerInterval() {
+        return operationsPerInterval;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoadReport{operations=%d, errors=%d, throughput=%.0f/s, p50=%s, p90=%s, p99=%s, "
+                        + "p99.9=%s, max=%s, serviceP99=%s}",
+                operations, errors, getThroughput(), responseTimes.getPercentile(50), responseTimes.getPercentile(90),
+                responseTimes.getPercentile(99), responseTimes.getPercentile(99.9), responseTimes.getMax(),
+                serviceTimes.getPercentile(99));
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
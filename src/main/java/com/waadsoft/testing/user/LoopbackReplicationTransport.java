@@ -0,0 +1,46 @@
+package com.waadsoft.testing.user;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * In-process transport delivering every message synchronously, on the sender's thread, to all connected receivers.
+ */
+public class LoopbackReplicationTransport implements ReplicationTransport {
+
+    private final List<Receiver> receivers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void send(UserChangeEvent event) {
+        receivers.forEach(receiver -> receiver.onEvent(event));
+    }
+
+    @Override
+    public void heartbeat(long leaderSequence) {
+        receivers.forEach(receiver -> receiver.onHeartbeat(leaderSequence));
+    }
+
+    @Override
+    public void connect(Receiver receiver) {
+        receivers.add(requireNonNull(receiver));
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,346 @@
+package com.waadsoft.testing.user;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Second-level cache that keeps users encoded with {@link UserCodec} in direct {@link ByteBuffer} slabs, so that
+ * cached users cost the garbage collector nothing until they are read back.
+ * <p>
+ * The cache is bounded by bytes: the capacity is split across segments, each one a slab of fixed-size slots that is
+ * recycled with CLOCK eviction. Users are keyed by ID; emails and usernames are aliases that point at the slot of
+ * their user and are verified against the encoded bytes on every lookup, so a stale or colliding alias is a miss,
+ * never a wrong answer. Aliases match exactly, without the repository's key normalization.
+ */
+public class OffHeapUserCache {
+
+    public static final int DEFAULT_SLOT_SIZE = 128;
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final int slotSize;
+    private final ConcurrentMap<Integer, Long> slotsByEmailHash = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, Long> slotsByUsernameHash = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong bytesResident = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public OffHeapUserCache(long capacityBytes) {
+        this(capacityBytes, DEFAULT_SLOT_SIZE, DEFAULT_SEGMENTS);
+    }
+
+    public OffHeapUserCache(long capacityBytes, int slotSize, int segments) {
+        if (slotSize <= 0 || segments <= 0) {
+            throw new IllegalArgumentException("Invalid cache layout specified!");
+        }
+        long slotsPerSegment = capacityBytes / segments / slotSize;
+        if (slotsPerSegment < 1) {
+            throw new IllegalArgumentException("Cache capacity too small!");
+        }
+        if (slotsPerSegment * slotSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cache segments too large, use more segments!");
+        }
+        this.slotSize = slotSize;
+        this.segments = new Segment[segments];
+        for (int index = 0; index < segments; index++) {
+            this.segments[index] = new Segment(index, (int) slotsPerSegment);
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                    L O O K U P S                        |
+    ==========================================================*/
+    public Optional<User> getById(Integer userId) {
+        if (isNull(userId)) {
+            return miss();
+        }
+        Segment segment = segmentFor(userId);
+        synchronized (segment) {
+            Integer slot = segment.slotsById.get(userId);
+            return isNull(slot) ? miss() : hit(segment, slot);
+        }
+    }
+
+    public Optional<User> getByEmail(String email) {
+        if (isNull(email)) {
+            return miss();
+        }
+        Long address = slotsByEmailHash.get(email.hashCode());
+        if (isNull(address)) {
+            return miss();
+        }
+        Segment segment = segments[segmentOf(address)];
+        int slot = slotOf(address);
+        synchronized (segment) {
+            return segment.isOccupied(slot) && segment.view(slot).emailEquals(email) ? hit(segment, slot) : miss();
+        }
+    }
+
+    public Optional<User> getByUsername(String username) {
+        if (isNull(username)) {
+            return miss();
+        }
+        Long address = slotsByUsernameHash.get(username.hashCode());
+        if (isNull(address)) {
+            return miss();
+        }
+        Segment segment = segments[segmentOf(address)];
+        int slot = slotOf(address);
+        synchronized (segment) {
+            return segment.isOccupied(slot) && segment.view(slot).usernameEquals(username)
+                    ? hit(segment, slot) : miss();
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                     U P D A T E S                       |
+    ==========================================================*/
+
+    /**
+     * Returns the stamp to hand to {@link #put(User, long)} for a user about to be read from the backing store.
+     */
+    public long stamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches the user unless an invalidation happened since {@code stamp} was taken, in which case the user may
+     * already be stale. Users without an ID or whose encoding does not fit a slot are not cached.
+     *
+     * @return whether the user was cached
+     */
+    public boolean put(User user, long stamp) {
+        if (isNull(user) || isNull(user.getUserId())) {
+            return false;
+        }
+        int length = UserCodec.encodedLength(user);
+        if (length > slotSize) {
+            rejected.increment();
+            return false;
+        }
+        Segment segment = segmentFor(user.getUserId());
+        synchronized (segment) {
+            if (invalidations.get() != stamp) {
+                return false;
+            }
+            Integer slot = segment.slotsById.get(user.getUserId());
+            if (isNull(slot)) {
+                slot = segment.claim();
+            } else {
+                segment.free(slot);
+            }
+            segment.store(slot, user, length);
+            return true;
+        }
+    }
+
+    public void invalidate(Integer userId) {
+        if (isNull(userId)) {
+            return;
+        }
+        invalidations.incrementAndGet();
+        Segment segment = segmentFor(userId);
+        synchronized (segment) {
+            Integer slot = segment.slotsById.get(userId);
+            if (!isNull(slot)) {
+                segment.free(slot);
+            }
+        }
+    }
+
+    public void clear() {
+        invalidations.incrementAndGet();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Integer slot : segment.slotsById.values().toArray(Integer[]::new)) {
+                    segment.free(slot);
+                }
+            }
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                   S T A T I S T I C S                   |
+    ==========================================================*/
+    public long capacityBytes() {
+        return (long) segments.length * segments[0].slots * slotSize;
+    }
+
+    /**
+     * Encoded bytes of the users currently cached, excluding the unused tail of their slots.
+     */
+    public long bytesResident() {
+        return bytesResident.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.slotsById.size();
+            }
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Users that were not cached because their encoding is larger than a slot.
+     */
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    public double hitRate() {
+        long hitCount = hits.sum();
+        long lookups = hitCount + misses.sum();
+        return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+    }
+
+    /*---------------------------------------------------------
+    |                     H E L P E R S                       |
+    ==========================================================*/
+    private Optional<User> hit(Segment segment, int slot) {
+        hits.increment();
+        segment.referenced.set(slot);
+        return Optional.of(UserCodec.decode(segment.slab.duplicate().position(slot * slotSize)));
+    }
+
+    private Optional<User> miss() {
+        misses.increment();
+        return Optional.empty();
+    }
+
+    private Segment segmentFor(Integer userId) {
+        int hash = userId.hashCode() * 0x9E3779B9;
+        return segments[(hash >>> 1) % segments.length];
+    }
+
+    private static long addressOf(int segment, int slot) {
+        return ((long) segment << 32) | slot;
+    }
+
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int slotOf(long address) {
+        return (int) address;
+    }
+
+    /**
+     * A slab of {@code slots} fixed-size slots. Every field is guarded by the segment's monitor.
+     */
+    private final class Segment {
+        private final int index;
+        private final int slots;
+        private final ByteBuffer slab;
+        private final int[] lengths;
+        private final int[] emailHashes;
+        private final int[] usernameHashes;
+        private final Map<Integer, Integer> slotsById = new HashMap<>();
+        private final BitSet referenced;
+        private final UserCodec.View view = new UserCodec.View();
+        private int hand;
+
+        Segment(int index, int slots) {
+            this.index = index;
+            this.slots = slots;
+            this.slab = ByteBuffer.allocateDirect(slots * slotSize);
+            this.lengths = new int[slots];
+            this.emailHashes = new int[slots];
+            this.usernameHashes = new int[slots];
+            this.referenced = new BitSet(slots);
+        }
+
+        boolean isOccupied(int slot) {
+            return lengths[slot] != 0;
+        }
+
+        UserCodec.View view(int slot) {
+            return view.wrap(slab, slot * slotSize);
+        }
+
+        /**
+         * Sweeps the clock hand to a free slot, evicting the first occupied one that was not read since the last sweep.
+         */
+        int claim() {
+            while (true) {
+                int slot = hand;
+                hand = (hand + 1) % slots;
+                if (!isOccupied(slot)) {
+                    return slot;
+                }
+                if (referenced.get(slot)) {
+                    referenced.clear(slot);
+                } else {
+                    free(slot);
+                    return slot;
+                }
+            }
+        }
+
+        void store(int slot, User user, int length) {
+            UserCodec.encode(user, slab.duplicate().position(slot * slotSize));
+            long address = addressOf(index, slot);
+            lengths[slot] = length;
+            slotsById.put(user.getUserId(), slot);
+            emailHashes[slot] = 0;
+            usernameHashes[slot] = 0;
+            if (!isNull(user.getEmail())) {
+                emailHashes[slot] = user.getEmail().hashCode();
+                slotsByEmailHash.put(emailHashes[slot], address);
+            }
+            if (!isNull(user.getUsername())) {
+                usernameHashes[slot] = user.getUsername().hashCode();
+                slotsByUsernameHash.put(usernameHashes[slot], address);
+            }
+            bytesResident.addAndGet(length);
+        }
+
+        void free(int slot) {
+            long address = addressOf(index, slot);
+            slotsById.remove(view(slot).getUserId(), slot);
+            slotsByEmailHash.remove(emailHashes[slot], address);
+            slotsByUsernameHash.remove(usernameHashes[slot], address);
+            bytesResident.addAndGet(-lengths[slot]);
+            lengths[slot] = 0;
+            referenced.clear(slot);
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,71 @@
+package com.waadsoft.testing.user;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * {@link UserService} whose single-user writes go through a {@link UserWritePipeline}, while reads and bulk deletes
+ * are served by the wrapped service. The blocking methods wait for their write to be applied; the {@code *Async}
+ * ones let callers pipeline many writes.
+ */
+public class PipelinedUserService extends ForwardingUserService {
+    private final UserWritePipeline writePipeline;
+
+    public PipelinedUserService(UserService userService, UserWritePipeline writePipeline) {
+        super(userService);
+        this.writePipeline = writePipeline;
+    }
+
+    public CompletableFuture<User> addUserAsync(User user) {
+        return writePipeline.add(user);
+    }
+
+    public CompletableFuture<User> updateUserAsync(User user) {
+        return writePipeline.update(user);
+    }
+
+    public CompletableFuture<Void> deleteUserByIdAsync(Integer userId) {
+        return writePipeline.deleteById(userId);
+    }
+
+    @Override
+    public User addUser(User user) {
+        return await(writePipeline.add(user));
+    }
+
+    @Override
+    public User updateUser(User user) {
+        return await(writePipeline.update(user));
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        await(writePipeline.delete(user));
+    }
+
+    @Override
+    public void deleteUserById(Integer userId) {
+        await(writePipeline.deleteById(userId));
+    }
+
+    @Override
+    public void deleteUserByEmail(String email) {
+        await(writePipeline.deleteByEmail(email));
+    }
+
+    @Override
+    public void deleteUserByUsername(String username) {
+        await(writePipeline.deleteByUsername(username));
+    }
+
+    private <T> T await(CompletableFuture<T> write) {
+        try {
+            return write.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
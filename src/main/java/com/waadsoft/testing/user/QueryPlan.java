@@ -0,0 +1,81 @@
+package com.waadsoft.testing.user;
+
+import java.util.List;
+
+/**
+ * How a {@link UserQuery} is executed, as reported by {@link UserRepository#explain(UserQuery)}: a tree of operators,
+ * each with the number of rows it is expected to produce.
+ */
+public final class QueryPlan {
+
+    private final String operator;
+    private final String detail;
+    private final long estimatedRows;
+    private final List<QueryPlan> inputs;
+
+    public QueryPlan(String operator, String detail, long estimatedRows, List<QueryPlan> inputs) {
+        this.operator = operator;
+        this.detail = detail;
+        this.estimatedRows = estimatedRows;
+        this.inputs = List.copyOf(inputs);
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public List<QueryPlan> getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Whether the plan, or any of its inputs, visits every user.
+     */
+    public boolean isScan() {
+        return operator.equals("Scan") || operator.equals("ParallelScan") || inputs.stream().anyMatch(QueryPlan::isScan);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        render(text, 0);
+        return text.toString();
+    }
+
+    private void render(StringBuilder text, int depth) {
+        text.append("  ".repeat(depth)).append(operator);
+        if (!detail.isEmpty()) {
+            text.append(' ').append(detail);
+        }
+        text.append(" (rows=").append(estimatedRows).append(')');
+        for (QueryPlan input : inputs) {
+            text.append('\n');
+            input.render(text, depth + 1);
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,44 @@
+package com.waadsoft.testing.user;
+
+import java.util.Collection;
+import java.util.concurrent.Flow;
+
+/**
+ * Non-blocking counterpart of {@link UserService}. Publishers are cold: nothing is read nor written until a
+ * subscriber requests items, and bulk reads only pull as many users as requested.
+ */
+public interface ReactiveUserService {
+    Flow.Publisher<User> addUser(User user);
+
+    Flow.Publisher<User> updateUser(User user);
+
+    Flow.Publisher<User> getUserById(Integer userId);
+
+    Flow.Publisher<User> getUserByEmail(String email);
+
+    Flow.Publisher<User> getUserByUsername(String username);
+
+    Flow.Publisher<User> getUsers();
+
+    Flow.Publisher<User> getUsersById(Collection<Integer> ids);
+
+    Flow.Publisher<User> getUsersByEmail(Collection<String> emails);
+
+    Flow.Publisher<User> getUsersByUsername(Collection<String> usernames);
+
+    Flow.Publisher<Void> deleteUser(User user);
+
+    Flow.Publisher<Void> deleteUserById(Integer userId);
+
+    Flow.Publisher<Void> deleteUserByEmail(String email);
+
+    Flow.Publisher<Void> deleteUserByUsername(String username);
+
+    Flow.Publisher<Void> deleteUsersByEmail(Collection<String> emails);
+
+    Flow.Publisher<Void> deleteUsersById(Collection<Integer> ids);
+
+    Flow.Publisher<Void> deleteUsersByUsername(Collection<String> usernames);
+
+    Flow.Publisher<Integer> countUsers();
+}
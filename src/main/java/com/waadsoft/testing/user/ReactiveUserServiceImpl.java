@@ -0,0 +1,158 @@
+package com.waadsoft.testing.user;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static java.util.Objects.isNull;
+
+public class ReactiveUserServiceImpl implements ReactiveUserService {
+    private final UserRepository userRepository;
+
+    public ReactiveUserServiceImpl(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @Override
+    public Flow.Publisher<User> addUser(User user) {
+        return single(() -> userRepository.add(user));
+    }
+
+    @Override
+    public Flow.Publisher<User> updateUser(User user) {
+        return single(() -> userRepository.update(user));
+    }
+
+    @Override
+    public Flow.Publisher<User> getUserById(Integer userId) {
+        return optional(() -> userRepository.findById(userId));
+    }
+
+    @Override
+    public Flow.Publisher<User> getUserByEmail(String email) {
+        return optional(() -> userRepository.findByEmail(email));
+    }
+
+    @Override
+    public Flow.Publisher<User> getUserByUsername(String username) {
+        return optional(() -> userRepository.findByUsername(username));
+    }
+
+    /**
+     * Streams a consistent snapshot of the repository, released once the subscription ends.
+     */
+    @Override
+    public Flow.Publisher<User> getUsers() {
+        return new CursorPublisher<>(() -> {
+            UserSnapshot snapshot = userRepository.snapshot();
+            return CursorPublisher.Cursor.of(snapshot.iterator(), snapshot::close);
+        });
+    }
+
+    @Override
+    public Flow.Publisher<User> getUsersById(Collection<Integer> ids) {
+        return lookups(ids, id -> isNull(id) ? null : userRepository.findByIdOrNull(id));
+    }
+
+    @Override
+    public Flow.Publisher<User> getUsersByEmail(Collection<String> emails) {
+        return lookups(emails, userRepository::findByEmailOrNull);
+    }
+
+    @Override
+    public Flow.Publisher<User> getUsersByUsername(Collection<String> usernames) {
+        return lookups(usernames, userRepository::findByUsernameOrNull);
+    }
+
+    @Override
+    public Flow.Publisher<Void> deleteUser(User user) {
+        return empty(() -> userRepository.delete(user));
+    }
+
+    @Override
+    public Flow.Publisher<Void> deleteUserById(Integer userId) {
+        return empty(() -> userRepository.deleteById(userId));
+    }
+
+    @Override
+    public Flow.Publisher<Void> deleteUserByEmail(String email) {
+        return empty(() -> userRepository.deleteByEmail(email));
+    }
+
+    @Override
+    public Flow.Publisher<Void> deleteUserByUsername(String username) {
+        return empty(() -> userRepository.deleteByUsername(username));
+    }
+
+    @Override
+    public Flow.Publisher<Void> deleteUsersByEmail(Collection<String> emails) {
+        return empty(() -> userRepository.deleteAllByEmail(emails));
+    }
+
+    @Override
+    public Flow.Publisher<Void> deleteUsersById(Collection<Integer> ids) {
+        return empty(() -> userRepository.deleteAllById(ids));
+    }
+
+    @Override
+    public Flow.Publisher<Void> deleteUsersByUsername(Collection<String> usernames) {
+        return empty(() -> userRepository.deleteAllByUsername(usernames));
+    }
+
+    @Override
+    public Flow.Publisher<Integer> countUsers() {
+        return single(userRepository::count);
+    }
+
+    private <T> Flow.Publisher<T> single(Supplier<T> operation) {
+        return new CursorPublisher<>(() -> CursorPublisher.Cursor.of(Collections.singleton(operation.get()).iterator()));
+    }
+
+    private Flow.Publisher<User> optional(Supplier<Optional<User>> operation) {
+        return new CursorPublisher<>(() -> CursorPublisher.Cursor.of(operation.get().stream().iterator()));
+    }
+
+    private Flow.Publisher<Void> empty(Runnable operation) {
+        return new CursorPublisher<>(() -> {
+            operation.run();
+            return CursorPublisher.Cursor.of(Collections.emptyIterator());
+        });
+    }
+
+    /**
+     * Looks keys up one at a time, as the subscriber requests users, skipping the ones not found.
+     * Unlike the {@link UserRepository} bulk reads, a key given twice emits its user twice.
+     */
+    private <K> Flow.Publisher<User> lookups(Collection<K> keys, Function<K, User> lookup) {
+        if (isNull(keys)) {
+            return new CursorPublisher<>(() -> CursorPublisher.Cursor.of(Collections.emptyIterator()));
+        }
+        return new CursorPublisher<>(() -> CursorPublisher.Cursor.of(new Iterator<>() {
+            private final Iterator<K> remaining = keys.iterator();
+            private User next;
+
+            @Override
+            public boolean hasNext() {
+                while (isNull(next) && remaining.hasNext()) {
+                    next = lookup.apply(remaining.next());
+                }
+                return !isNull(next);
+            }
+
+            @Override
+            public User next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                User user = next;
+                next = null;
+                return user;
+            }
+        }));
+    }
+}
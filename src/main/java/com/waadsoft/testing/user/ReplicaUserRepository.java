@@ -0,0 +1,369 @@
+package com.waadsoft.testing.user;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Read-only follower of a {@link ReplicationLeader}. Received changes are applied in order to a local repository,
+ * which then serves the {@code find*} reads.
+ * <p>
+ * Reads fail with {@link ReplicaStaleException} once the replica hasn't been in sync with the leader for longer
+ * than the configured staleness bound. Writes must go to the leader.
+ * <p>
+ * {@link #count()} and {@link #stats()} are monitoring figures: they report the local copy as it is, without locking
+ * and without checking staleness.
+ */
+public class ReplicaUserRepository implements UserRepository, ReplicationTransport.Receiver {
+
+    private final UserRepository replica;
+    private final long maxStalenessNanos;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Condition applied = lock.writeLock().newCondition();
+    private long appliedSequence;
+    private long leaderSequence;
+    private volatile long inSyncAt;
+    private volatile RuntimeException failure;
+
+    public ReplicaUserRepository(UserRepository replica, Duration maxStaleness) {
+        this.replica = requireNonNull(replica);
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        this.inSyncAt = System.nanoTime();
+    }
+
+    /*---------------------------------------------------------
+    |               R E P L I C A T I O N                     |
+    ==========================================================*/
+    @Override
+    public void onEvent(UserChangeEvent event) {
+        lock.writeLock().lock();
+        try {
+            if (event.getSequence() <= appliedSequence || failure != null) {
+                return;
+            }
+            if (event.getSequence() != appliedSequence + 1) {
+                failure = new ReplicaStaleException("Missed changes " + (appliedSequence + 1) + " to " + (event.getSequence() - 1) + "!");
+                return;
+            }
+            try {
+                apply(event);
+            } catch (RuntimeException e) {
+                failure = new ReplicaStaleException("Failed to apply change " + event.getSequence() + "!", e);
+                applied.signalAll();
+                return;
+            }
+            appliedSequence = event.getSequence();
+            leaderSequence = Math.max(leaderSequence, appliedSequence);
+            if (appliedSequence == leaderSequence) {
+                inSyncAt = System.nanoTime();
+            }
+            applied.signalAll();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onHeartbeat(long sequence) {
+        lock.writeLock().lock();
+        try {
+            leaderSequence = Math.max(leaderSequence, sequence);
+            if (appliedSequence >= leaderSequence) {
+                inSyncAt = System.nanoTime();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long appliedSequence() {
+        lock.readLock().lock();
+        try {
+            return appliedSequence;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until the replica has applied the leader change identified by the given read-your-writes token.
+     *
+     * @throws ReplicaStaleException if the change wasn't applied in time
+     */
+    public void awaitSequence(long token, Duration timeout) {
+        long remaining = timeout.toNanos();
+        lock.writeLock().lock();
+        try {
+            while (appliedSequence < token) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (remaining <= 0) {
+                    throw new ReplicaStaleException("Change " + token + " not replicated yet!");
+                }
+                remaining = applied.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReplicaStaleException("Interrupted while waiting for change " + token + "!", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(UserChangeEvent event) {
+        switch (event.getType()) {
+            case ADDED:
+                replica.restore(event.getAfter());
+                break;
+            case UPDATED:
+                replica.update(event.getAfter());
+                break;
+            case DELETED:
+                replica.deleteById(event.getBefore().getUserId());
+                break;
+        }
+    }
+
+    private <T> T read(Supplier<T> query) {
+        checkInSync();
+        lock.readLock().lock();
+        try {
+            return query.get();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void checkInSync() {
+        if (failure != null) {
+            throw failure;
+        }
+        long staleness = System.nanoTime() - inSyncAt;
+        if (staleness > maxStalenessNanos) {
+            throw new ReplicaStaleException("Replica out of sync for " + TimeUnit.NANOSECONDS.toMillis(staleness) + " ms!");
+        }
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Replica is read-only, write to the leader!");
+    }
+
+    /*---------------------------------------------------------
+    |                     R E A D S                           |
+    ==========================================================*/
+    @Override
+    public Optional<User> findById(Integer userId) {
+        return read(() -> replica.findById(userId));
+    }
+
+    @Override
+    public User findByIdOrNull(int userId) {
+        checkInSync();
+        lock.readLock().lock();
+        try {
+            return replica.findByIdOrNull(userId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<User> findByEmail(String email) {
+        return read(() -> replica.findByEmail(email));
+    }
+
+    @Override
+    public User findByEmailOrNull(String email) {
+        checkInSync();
+        lock.readLock().lock();
+        try {
+            return replica.findByEmailOrNull(email);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<User> findByUsername(String username) {
+        return read(() -> replica.findByUsername(username));
+    }
+
+    @Override
+    public User findByUsernameOrNull(String username) {
+        checkInSync();
+        lock.readLock().lock();
+        try {
+            return replica.findByUsernameOrNull(username);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<User> findAll() {
+        return read(replica::findAll);
+    }
+
+    @Override
+    public void forEach(Consumer<? super User> action) {
+        read(() -> {
+            replica.forEach(action);
+            return null;
+        });
+    }
+
+    @Override
+    public List<User> findAllById(Collection<Integer> ids) {
+        return read(() -> replica.findAllById(ids));
+    }
+
+    @Override
+    public List<User> findAllByEmail(Collection<String> emails) {
+        return read(() -> replica.findAllByEmail(emails));
+    }
+
+    @Override
+    public List<User> findAllByUsername(Collection<String> usernames) {
+        return read(() -> replica.findAllByUsername(usernames));
+    }
+
+    @Override
+    public List<User> findAllByEmailDomain(String domain, int page, int size) {
+        return read(() -> replica.findAllByEmailDomain(domain, page, size));
+    }
+
+    @Override
+    public int countByEmailDomain(String domain) {
+        return read(() -> replica.countByEmailDomain(domain));
+    }
+
+    @Override
+    public List<User> findByIdRange(int from, int to, int limit) {
+        return read(() -> replica.findByIdRange(from, to, limit));
+    }
+
+    @Override
+    public List<User> findByIdRangeDescending(int from, int to, int limit) {
+        return read(() -> replica.findByIdRangeDescending(from, to, limit));
+    }
+
+    @Override
+    public List<User> find(UserQuery query) {
+        return read(() -> replica.find(query));
+    }
+
+    @Override
+    public QueryPlan explain(UserQuery query) {
+        return read(() -> replica.explain(query));
+    }
+
+    @Override
+    public int count() {
+        return replica.count();
+    }
+
+    @Override
+    public Flow.Publisher<UserChangeEvent> changes(long fromSequence) {
+        return replica.changes(fromSequence);
+    }
+
+    @Override
+    public long lastSequence() {
+        return replica.lastSequence();
+    }
+
+    @Override
+    public UserSnapshot snapshot() {
+        return read(replica::snapshot);
+    }
+
+    @Override
+    public RepositoryStats stats() {
+        return replica.stats();
+    }
+
+    /*---------------------------------------------------------
+    |                    W R I T E S                          |
+    ==========================================================*/
+    @Override
+    public User add(User user) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<User> addAll(Collection<User> users) {
+        throw readOnly();
+    }
+
+    @Override
+    public User update(User user) {
+        throw readOnly();
+    }
+
+    @Override
+    public User restore(User user) {
+        throw readOnly();
+    }
+
+    @Override
+    public void delete(User user) {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteById(Integer userId) {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteByEmail(String email) {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteByUsername(String username) {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteAllByEmail(Collection<String> emails) {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteAllById(Collection<Integer> ids) {
+        throw readOnly();
+    }
+
+    @Override
+    public void deleteAllByUsername(Collection<String> usernames) {
+        throw readOnly();
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,140 @@
+package com.waadsoft.testing.user;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Ships the change feed of a repository to followers over a {@link ReplicationTransport}.
+ * <p>
+ * After a write on the leader repository, {@link #lastSequence()} is a read-your-writes token
+ * to hand to {@link ReplicaUserRepository#awaitSequence(long, java.time.Duration)}.
+ * <p>
+ * The leader sends a heartbeat at a fixed interval from its own thread, so that idle followers stay in sync, and
+ * stops once closed or once replication has failed, so that followers notice and go stale.
+ */
+public class ReplicationLeader implements AutoCloseable {
+
+    public static final Duration DEFAULT_HEARTBEAT_INTERVAL = Duration.ofSeconds(1);
+
+    private final UserRepository userRepository;
+    private final ReplicationTransport transport;
+    private final ScheduledExecutorService heartbeats;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean closed;
+    private volatile long shippedSequence;
+    private volatile Throwable failure;
+
+    public ReplicationLeader(UserRepository userRepository, ReplicationTransport transport) {
+        this(userRepository, transport, 0);
+    }
+
+    /**
+     * @param fromSequence the last sequence followers already applied
+     */
+    public ReplicationLeader(UserRepository userRepository, ReplicationTransport transport, long fromSequence) {
+        this(userRepository, transport, fromSequence, DEFAULT_HEARTBEAT_INTERVAL);
+    }
+
+    /**
+     * @param fromSequence      the last sequence followers already applied
+     * @param heartbeatInterval how often followers hear from an idle leader, well below their staleness bound
+     */
+    public ReplicationLeader(UserRepository userRepository, ReplicationTransport transport, long fromSequence,
+                             Duration heartbeatInterval) {
+        if (heartbeatInterval.isZero() || heartbeatInterval.isNegative()) {
+            throw new IllegalArgumentException("Invalid heartbeat interval specified!");
+        }
+        this.userRepository = requireNonNull(userRepository);
+        this.transport = requireNonNull(transport);
+        this.shippedSequence = fromSequence;
+        userRepository.changes(fromSequence).subscribe(new Shipper());
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replication-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats.scheduleAtFixedRate(this::heartbeat, heartbeatInterval.toNanos(), heartbeatInterval.toNanos(),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the sequence of the last write on the leader repository, shipped or about to be
+     */
+    public long lastSequence() {
+        return userRepository.lastSequence();
+    }
+
+    public void heartbeat() {
+        if (failure != null) {
+            throw new IllegalStateException("Replication stopped!", failure);
+        }
+        transport.heartbeat(shippedSequence);
+    }
+
+    /**
+     * Stops shipping changes and heartbeats. Followers go stale once their staleness bound is over.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Flow.Subscription shipping = subscription;
+        if (shipping != null) {
+            shipping.cancel();
+        }
+        heartbeats.shutdownNow();
+    }
+
+    private final class Shipper implements Flow.Subscriber<UserChangeEvent> {
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            ReplicationLeader.this.subscription = subscription;
+            if (closed) {
+                subscription.cancel();
+                return;
+            }
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(UserChangeEvent event) {
+            if (closed) {
+                // delivered while close() was cancelling
+                return;
+            }
+            transport.send(event);
+            shippedSequence = event.getSequence();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            failure = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,41 @@
+package com.waadsoft.testing.user;
+
+/**
+ * Carries the ordered change log of a {@link ReplicationLeader} to its followers.
+ * Implementations must deliver events to each receiver in sequence order.
+ */
+public interface ReplicationTransport {
+
+    void send(UserChangeEvent event);
+
+    /**
+     * Tells followers the leader's latest sequence, even when nothing changed.
+     */
+    void heartbeat(long leaderSequence);
+
+    void connect(Receiver receiver);
+
+    interface Receiver {
+
+        void onEvent(UserChangeEvent event);
+
+        void onHeartbeat(long leaderSequence);
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
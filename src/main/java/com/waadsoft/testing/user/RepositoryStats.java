@@ -0,0 +1,146 @@
+package com.waadsoft.testing.user;
+
+import java.util.Collection;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Live statistics of a {@link UserRepository} and its indexes, meant for capacity planning.
+ * Hash table figures are estimated from the index keys, assuming a table sized like {@code java.util.HashMap}'s.
+ */
+public final class RepositoryStats {
+
+    private final int userCount;
+    private final List<IndexStats> indexes;
+
+    public RepositoryStats(int userCount, List<IndexStats> indexes) {
+        this.userCount = userCount;
+        this.indexes = List.copyOf(indexes);
+    }
+
+    /*---------------------------------------------------------
+    |       A C C E S S O R S    /    M O D I F I E R S       |
+    ==========================================================*/
+    public int getUserCount() {
+        return userCount;
+    }
+
+    public List<IndexStats> getIndexes() {
+        return indexes;
+    }
+
+    public IndexStats getIndex(String name) {
+        return indexes.stream()
+                .filter(index -> index.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown index: " + name));
+    }
+
+    public long getEstimatedBytes() {
+        return indexes.stream()
+                .mapToLong(IndexStats::getEstimatedBytes)
+                .sum();
+    }
+
+    public static final class IndexStats {
+
+        private static final float LOAD_FACTOR = 0.75f;
+        private static final int MIN_TABLE_SIZE = 16;
+
+        private final String name;
+        private final int entries;
+        private final int tableSize;
+        private final int maxChainLength;
+        private final double averageChainLength;
+        private final long estimatedBytes;
+
+        private IndexStats(String name, int entries, int tableSize, int maxChainLength, double averageChainLength,
+                           long estimatedBytes) {
+            this.name = requireNonNull(name);
+            this.entries = entries;
+            this.tableSize = tableSize;
+            this.maxChainLength = maxChainLength;
+            this.averageChainLength = averageChainLength;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        /**
+         * Scans the keys of a hash index to compute its bucket distribution.
+         *
+         * @param estimatedBytes the approximate heap footprint of the whole index
+         */
+        public static IndexStats ofHashIndex(String name, Collection<?> keys, long estimatedBytes) {
+            int tableSize = MIN_TABLE_SIZE;
+            while (tableSize < keys.size() / LOAD_FACTOR && tableSize < 1 << 30) {
+                tableSize <<= 1;
+            }
+            int[] buckets = new int[tableSize];
+            int entries = 0;
+            int usedBuckets = 0;
+            int maxChainLength = 0;
+            for (Object key : keys) {
+                int h = key.hashCode();
+                int bucket = (h ^ (h >>> 16)) & (tableSize - 1);
+                if (buckets[bucket]++ == 0) {
+                    usedBuckets++;
+                }
+                maxChainLength = Math.max(maxChainLength, buckets[bucket]);
+                entries++;
+            }
+            double averageChainLength = usedBuckets == 0 ? 0 : (double) entries / usedBuckets;
+            return new IndexStats(name, entries, tableSize, maxChainLength, averageChainLength, estimatedBytes);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public int getTableSize() {
+            return tableSize;
+        }
+
+        public double getLoadFactor() {
+            return (double) entries / tableSize;
+        }
+
+        public int getMaxChainLength() {
+            return maxChainLength;
+        }
+
+        public double getAverageChainLength() {
+            return averageChainLength;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s{entries=%d, loadFactor=%.2f, maxChain=%d, avgChain=%.2f, bytes=%d}",
+                    name, entries, getLoadFactor(), maxChainLength, averageChainLength, estimatedBytes);
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,341 @@
+package com.waadsoft.testing.user;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Runs {@link UserService} calls on a fixed pool of workers, with one bounded queue per {@link UserOperationClass}.
+ * Workers always serve the most latency-sensitive non-empty lane first, and each lane is rate-limited by its own
+ * {@link TokenBucket}. When a lane is full or out of tokens, calls fail fast with {@link ServiceOverloadedException}.
+ */
+public class SchedulingUserService implements UserService, AutoCloseable {
+
+    private final UserService userService;
+    private final Map<UserOperationClass, Lane> lanes = new EnumMap<>(UserOperationClass.class);
+    private final Semaphore queued = new Semaphore(0);
+    private final List<Thread> workers;
+    private volatile boolean closed;
+
+    public SchedulingUserService(UserService userService, int workers, int queueCapacity) {
+        this(userService, workers, queueCapacity, Map.of());
+    }
+
+    /**
+     * @param rateLimits per class limits, classes without one are not rate-limited
+     */
+    public SchedulingUserService(UserService userService, int workers, int queueCapacity,
+                                 Map<UserOperationClass, TokenBucket> rateLimits) {
+        if (workers <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid scheduler settings!");
+        }
+        this.userService = requireNonNull(userService);
+        for (UserOperationClass operationClass : UserOperationClass.values()) {
+            TokenBucket rateLimit = rateLimits.getOrDefault(operationClass, TokenBucket.unlimited());
+            lanes.put(operationClass, new Lane(operationClass, queueCapacity, rateLimit));
+        }
+        this.workers = IntStream.range(0, workers)
+                .mapToObj(i -> {
+                    Thread worker = new Thread(this::work, "user-service-worker-" + i);
+                    worker.setDaemon(true);
+                    worker.start();
+                    return worker;
+                })
+                .collect(toList());
+    }
+
+    public LaneStats laneStats(UserOperationClass operationClass) {
+        return lanes.get(operationClass).stats();
+    }
+
+    /**
+     * Stops the workers and fails every call still waiting in a lane. Calls made afterwards are rejected.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        workers.forEach(Thread::interrupt);
+        for (Lane lane : lanes.values()) {
+            for (ScheduledCall<?> call = lane.queue.poll(); call != null; call = lane.queue.poll()) {
+                call.fail(closedException());
+            }
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                   S C H E D U L I N G                   |
+    ==========================================================*/
+    private <T> T schedule(UserOperationClass operationClass, Callable<T> operation) {
+        if (closed) {
+            throw closedException();
+        }
+        Lane lane = lanes.get(operationClass);
+        if (!lane.rateLimit.tryAcquire()) {
+            lane.rejected.increment();
+            throw new ServiceOverloadedException("Rate limit exceeded for " + operationClass + " operations!");
+        }
+        ScheduledCall<T> call = new ScheduledCall<>(operation);
+        if (!lane.queue.offer(call)) {
+            lane.rateLimit.release();
+            lane.rejected.increment();
+            throw new ServiceOverloadedException("Too many pending " + operationClass + " operations!");
+        }
+        if (closed && lane.queue.remove(call)) {
+            // close() may have drained the lane before this call got in
+            call.fail(closedException());
+        }
+        queued.release();
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            call.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a " + operationClass + " operation!", e);
+        }
+    }
+
+    private static IllegalStateException closedException() {
+        return new IllegalStateException("User service scheduler closed!");
+    }
+
+    private void execute(UserOperationClass operationClass, Runnable operation) {
+        schedule(operationClass, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    private void work() {
+        try {
+            while (!closed && !Thread.currentThread().isInterrupted()) {
+                queued.acquire();
+                for (Lane lane : lanes.values()) {
+                    ScheduledCall<?> call = lane.queue.poll();
+                    if (call != null && closed) {
+                        // the interrupt from close() may have been swallowed by the call this worker was running
+                        call.fail(closedException());
+                        break;
+                    }
+                    if (call != null) {
+                        lane.recordWait(System.nanoTime() - call.enqueuedAt);
+                        call.run();
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class ScheduledCall<T> extends FutureTask<T> {
+
+        private final long enqueuedAt = System.nanoTime();
+
+        private ScheduledCall(Callable<T> callable) {
+            super(callable);
+        }
+
+        private void fail(RuntimeException cause) {
+            setException(cause);
+        }
+    }
+
+    private static final class Lane {
+
+        private final UserOperationClass operationClass;
+        private final BlockingQueue<ScheduledCall<?>> queue;
+        private final TokenBucket rateLimit;
+        private final LongAdder started = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final LongAdder rejected = new LongAdder();
+
+        private Lane(UserOperationClass operationClass, int queueCapacity, TokenBucket rateLimit) {
+            this.operationClass = operationClass;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.rateLimit = rateLimit;
+        }
+
+        private void recordWait(long nanos) {
+            started.increment();
+            waitNanos.add(nanos);
+            maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private LaneStats stats() {
+            return new LaneStats(operationClass, queue.size(), started.sum(), waitNanos.sum(), maxWaitNanos.get(), rejected.sum());
+        }
+    }
+
+    /**
+     * Queue wait time and load shedding figures of one lane, since the service was created.
+     */
+    public static final class LaneStats {
+
+        private final UserOperationClass operationClass;
+        private final int queueDepth;
+        private final long started;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long rejected;
+
+        private LaneStats(UserOperationClass operationClass, int queueDepth, long started, long totalWaitNanos,
+                          long maxWaitNanos, long rejected) {
+            this.operationClass = operationClass;
+            this.queueDepth = queueDepth;
+            this.started = started;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.rejected = rejected;
+        }
+
+        public UserOperationClass getOperationClass() {
+            return operationClass;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        public long getAverageWaitNanos() {
+            return started == 0 ? 0 : totalWaitNanos / started;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                U S E R   S E R V I C E                  |
+    ==========================================================*/
+    @Override
+    public User addUser(User user) {
+        return schedule(UserOperationClass.WRITE, () -> userService.addUser(user));
+    }
+
+    @Override
+    public User updateUser(User user) {
+        return schedule(UserOperationClass.WRITE, () -> userService.updateUser(user));
+    }
+
+    @Override
+    public Optional<User> getUserById(Integer userId) {
+        return schedule(UserOperationClass.LOOKUP, () -> userService.getUserById(userId));
+    }
+
+    @Override
+    public Optional<User> getUserByEmail(String email) {
+        return schedule(UserOperationClass.LOOKUP, () -> userService.getUserByEmail(email));
+    }
+
+    @Override
+    public Optional<User> getUserByUsername(String username) {
+        return schedule(UserOperationClass.LOOKUP, () -> userService.getUserByUsername(username));
+    }
+
+    @Override
+    public List<User> getUsers() {
+        return schedule(UserOperationClass.BULK_READ, userService::getUsers);
+    }
+
+    @Override
+    public List<User> getUsersById(Collection<Integer> ids) {
+        return schedule(UserOperationClass.BULK_READ, () -> userService.getUsersById(ids));
+    }
+
+    @Override
+    public List<User> getUsersByEmail(Collection<String> emails) {
+        return schedule(UserOperationClass.BULK_READ, () -> userService.getUsersByEmail(emails));
+    }
+
+    @Override
+    public List<User> getUsersByUsername(Collection<String> usernames) {
+        return schedule(UserOperationClass.BULK_READ, () -> userService.getUsersByUsername(usernames));
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        execute(UserOperationClass.WRITE, () -> userService.deleteUser(user));
+    }
+
+    @Override
+    public void deleteUserById(Integer userId) {
+        execute(UserOperationClass.WRITE, () -> userService.deleteUserById(userId));
+    }
+
+    @Override
+    public void deleteUserByEmail(String email) {
+        execute(UserOperationClass.WRITE, () -> userService.deleteUserByEmail(email));
+    }
+
+    @Override
+    public void deleteUserByUsername(String username) {
+        execute(UserOperationClass.WRITE, () -> userService.deleteUserByUsername(username));
+    }
+
+    @Override
+    public void deleteUsersByEmail(Collection<String> emails) {
+        execute(UserOperationClass.BULK_WRITE, () -> userService.deleteUsersByEmail(emails));
+    }
+
+    @Override
+    public void deleteUsersById(Collection<Integer> ids) {
+        execute(UserOperationClass.BULK_WRITE, () -> userService.deleteUsersById(ids));
+    }
+
+    @Override
+    public void deleteUsersByUsername(Collection<String> usernames) {
+        execute(UserOperationClass.BULK_WRITE, () -> userService.deleteUsersByUsername(usernames));
+    }
+
+    @Override
+    public int countUsers() {
+        return schedule(UserOperationClass.LOOKUP, userService::countUsers);
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
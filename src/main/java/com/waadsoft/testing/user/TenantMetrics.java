@@ -0,0 +1,73 @@
+package com.waadsoft.testing.user;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Point-in-time usage of a tenant against its {@link TenantQuota}.
+ */
+public final class TenantMetrics {
+
+    private final String tenantId;
+    private final TenantQuota quota;
+    private final int userCount;
+    private final long usedBytes;
+    private final long rejectedWrites;
+
+    public TenantMetrics(String tenantId, TenantQuota quota, int userCount, long usedBytes, long rejectedWrites) {
+        this.tenantId = requireNonNull(tenantId);
+        this.quota = requireNonNull(quota);
+        this.userCount = userCount;
+        this.usedBytes = usedBytes;
+        this.rejectedWrites = rejectedWrites;
+    }
+
+    /*---------------------------------------------------------
+    |       A C C E S S O R S    /    M O D I F I E R S       |
+    ==========================================================*/
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public TenantQuota getQuota() {
+        return quota;
+    }
+
+    public int getUserCount() {
+        return userCount;
+    }
+
+    /**
+     * Estimated heap footprint of the tenant's users and indexes.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getRejectedWrites() {
+        return rejectedWrites;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TenantMetrics{tenant=%s, users=%d/%d, bytes=%d/%d, rejectedWrites=%d}",
+                tenantId, userCount, quota.getMaxUsers(), usedBytes, quota.getMaxBytes(), rejectedWrites);
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
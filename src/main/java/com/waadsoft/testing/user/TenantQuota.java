@@ -0,0 +1,65 @@
+package com.waadsoft.testing.user;
+
+/**
+ * Upper bounds on what a single tenant may store: a number of users and an estimated heap footprint in bytes.
+ */
+public final class TenantQuota {
+
+    private static final TenantQuota UNLIMITED = new TenantQuota(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final int maxUsers;
+    private final long maxBytes;
+
+    private TenantQuota(int maxUsers, long maxBytes) {
+        this.maxUsers = maxUsers;
+        this.maxBytes = maxBytes;
+    }
+
+    public static TenantQuota of(int maxUsers, long maxBytes) {
+        if (maxUsers <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid tenant quota specified!");
+        }
+        return new TenantQuota(maxUsers, maxBytes);
+    }
+
+    public static TenantQuota unlimited() {
+        return UNLIMITED;
+    }
+
+    /*---------------------------------------------------------
+    |       A C C E S S O R S    /    M O D I F I E R S       |
+    ==========================================================*/
+    public int getMaxUsers() {
+        return maxUsers;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TenantQuota{" +
+                "maxUsers=" + maxUsers +
+                ", maxBytes=" + maxBytes +
+                '}';
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
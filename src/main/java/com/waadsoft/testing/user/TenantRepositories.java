@@ -0,0 +1,90 @@
+package com.waadsoft.testing.user;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Hosts the repositories of several tenants in one JVM.
+ * <p>
+ * Each tenant gets its own indexes and write lock, so neither data nor contention leaks from one tenant to another.
+ * Every tenant is bounded by a {@link TenantQuota}.
+ */
+public class TenantRepositories {
+
+    private final UserKeyNormalizer keyNormalizer;
+    private final ConcurrentMap<String, TenantUserRepository> tenants = new ConcurrentHashMap<>();
+
+    public TenantRepositories() {
+        this(UserKeyNormalizer.exact());
+    }
+
+    public TenantRepositories(UserKeyNormalizer keyNormalizer) {
+        this.keyNormalizer = requireNonNull(keyNormalizer);
+    }
+
+    public TenantUserRepository register(String tenantId, TenantQuota quota) {
+        if (isNull(tenantId) || tenantId.isBlank()) {
+            throw new IllegalArgumentException("Invalid tenant specified!");
+        }
+        if (isNull(quota)) {
+            throw new IllegalArgumentException("Invalid tenant quota specified!");
+        }
+        TenantUserRepository repository = new TenantUserRepository(tenantId, quota, new UserRepositoryImpl(
+                UserRepositoryImpl.DEFAULT_CHANGE_LOG_CAPACITY, keyNormalizer));
+        if (!isNull(tenants.putIfAbsent(tenantId, repository))) {
+            throw new IllegalStateException("Tenant already registered!");
+        }
+        return repository;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the tenant isn't registered
+     */
+    public TenantUserRepository forTenant(String tenantId) {
+        TenantUserRepository repository = isNull(tenantId) ? null : tenants.get(tenantId);
+        if (isNull(repository)) {
+            throw new IllegalArgumentException("Unknown tenant specified!");
+        }
+        return repository;
+    }
+
+    /**
+     * Drops the tenant and all its users.
+     */
+    public void unregister(String tenantId) {
+        if (isNull(tenantId) || isNull(tenants.remove(tenantId))) {
+            throw new IllegalArgumentException("Unknown tenant specified!");
+        }
+    }
+
+    public List<TenantMetrics> metrics() {
+        return tenants.values().stream()
+                .map(TenantUserRepository::metrics)
+                .sorted(Comparator.comparing(TenantMetrics::getTenantId))
+                .collect(toList());
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
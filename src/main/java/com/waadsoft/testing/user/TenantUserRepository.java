@@ -0,0 +1,218 @@
+package com.waadsoft.testing.user;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Repository of a single tenant, handed out by {@link TenantRepositories}. Writes that would take the tenant over its
+ * {@link TenantQuota} are rejected with a {@link QuotaExceededException} before reaching the underlying repository.
+ * <p>
+ * Writes are serialized per tenant, so a bulk import only ever waits on, and delays, the same tenant's writes.
+ * Reads go straight to the tenant's own indexes without taking any lock.
+ */
+public class TenantUserRepository extends ForwardingUserRepository {
+
+    private final String tenantId;
+    private final TenantQuota quota;
+    private final LongAdder rejectedWrites = new LongAdder();
+    private volatile long usedBytes;
+
+    TenantUserRepository(String tenantId, TenantQuota quota, UserRepository delegate) {
+        super(delegate);
+        this.tenantId = requireNonNull(tenantId);
+        this.quota = requireNonNull(quota);
+    }
+
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    public TenantMetrics metrics() {
+        return new TenantMetrics(tenantId, quota, count(), usedBytes, rejectedWrites.sum());
+    }
+
+    /*---------------------------------------------------------
+    |                    W R I T E S                          |
+    ==========================================================*/
+    @Override
+    public synchronized User add(User user) {
+        if (!isNull(user)) {
+            checkQuota(1, UserRepositoryImpl.estimatedBytes(user));
+        }
+        User added = super.add(user);
+        usedBytes += UserRepositoryImpl.estimatedBytes(added);
+        return added;
+    }
+
+    @Override
+    public synchronized User restore(User user) {
+        if (!isNull(user)) {
+            checkQuota(1, UserRepositoryImpl.estimatedBytes(user));
+        }
+        User restored = super.restore(user);
+        usedBytes += UserRepositoryImpl.estimatedBytes(restored);
+        return restored;
+    }
+
+    @Override
+    public synchronized List<User> addAll(Collection<User> users) {
+        if (!isNull(users)) {
+            checkQuota(users.size(), users.stream()
+                    .filter(user -> !isNull(user))
+                    .mapToLong(UserRepositoryImpl::estimatedBytes)
+                    .sum());
+        }
+        List<User> added = super.addAll(users);
+        usedBytes += added.stream().mapToLong(UserRepositoryImpl::estimatedBytes).sum();
+        return added;
+    }
+
+    @Override
+    public synchronized User update(User user) {
+        User previous = isNull(user) || isNull(user.getUserId()) ? null : findByIdOrNull(user.getUserId());
+        if (!isNull(previous)) {
+            checkQuota(0, UserRepositoryImpl.estimatedBytes(user) - UserRepositoryImpl.estimatedBytes(previous));
+        }
+        User updated = super.update(user);
+        usedBytes += UserRepositoryImpl.estimatedBytes(updated) - UserRepositoryImpl.estimatedBytes(previous);
+        return updated;
+    }
+
+    @Override
+    public synchronized void delete(User user) {
+        List<User> candidates = new ArrayList<>();
+        if (!isNull(user)) {
+            if (!isNull(user.getUserId())) {
+                candidates.add(findByIdOrNull(user.getUserId()));
+            }
+            candidates.add(findByUsernameOrNull(user.getUsername()));
+            candidates.add(findByEmailOrNull(user.getEmail()));
+        }
+        try {
+            super.delete(user);
+        } finally {
+            releaseDeleted(candidates);
+        }
+    }
+
+    @Override
+    public synchronized void deleteById(Integer userId) {
+        User candidate = isNull(userId) ? null : findByIdOrNull(userId);
+        try {
+            super.deleteById(userId);
+        } finally {
+            releaseDeleted(Collections.singletonList(candidate));
+        }
+    }
+
+    @Override
+    public synchronized void deleteByEmail(String email) {
+        User candidate = findByEmailOrNull(email);
+        try {
+            super.deleteByEmail(email);
+        } finally {
+            releaseDeleted(Collections.singletonList(candidate));
+        }
+    }
+
+    @Override
+    public synchronized void deleteByUsername(String username) {
+        User candidate = findByUsernameOrNull(username);
+        try {
+            super.deleteByUsername(username);
+        } finally {
+            releaseDeleted(Collections.singletonList(candidate));
+        }
+    }
+
+    @Override
+    public synchronized void deleteAllById(Collection<Integer> ids) {
+        List<User> candidates = new ArrayList<>();
+        if (!isNull(ids)) {
+            ids.stream().filter(id -> !isNull(id)).forEach(id -> candidates.add(findByIdOrNull(id)));
+        }
+        try {
+            super.deleteAllById(ids);
+        } finally {
+            releaseDeleted(candidates);
+        }
+    }
+
+    @Override
+    public synchronized void deleteAllByEmail(Collection<String> emails) {
+        List<User> candidates = new ArrayList<>();
+        if (!isNull(emails)) {
+            emails.forEach(email -> candidates.add(findByEmailOrNull(email)));
+        }
+        try {
+            super.deleteAllByEmail(emails);
+        } finally {
+            releaseDeleted(candidates);
+        }
+    }
+
+    @Override
+    public synchronized void deleteAllByUsername(Collection<String> usernames) {
+        List<User> candidates = new ArrayList<>();
+        if (!isNull(usernames)) {
+            usernames.forEach(username -> candidates.add(findByUsernameOrNull(username)));
+        }
+        try {
+            super.deleteAllByUsername(usernames);
+        } finally {
+            releaseDeleted(candidates);
+        }
+    }
+
+    private void checkQuota(int addedUsers, long addedBytes) {
+        if ((long) count() + addedUsers > quota.getMaxUsers()) {
+            rejectedWrites.increment();
+            throw new QuotaExceededException("User quota exceeded for tenant " + tenantId + "!");
+        }
+        if (addedBytes > 0 && usedBytes + addedBytes > quota.getMaxBytes()) {
+            rejectedWrites.increment();
+            throw new QuotaExceededException("Byte quota exceeded for tenant " + tenantId + "!");
+        }
+    }
+
+    /**
+     * Gives back the footprint of the candidates that are gone, which also covers batch deletes failing halfway.
+     */
+    private void releaseDeleted(Collection<User> candidates) {
+        Map<Integer, User> distinct = new HashMap<>();
+        candidates.stream()
+                .filter(candidate -> !isNull(candidate))
+                .forEach(candidate -> distinct.putIfAbsent(candidate.getUserId(), candidate));
+        for (User candidate : distinct.values()) {
+            if (isNull(findByIdOrNull(candidate.getUserId()))) {
+                usedBytes -= UserRepositoryImpl.estimatedBytes(candidate);
+            }
+        }
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,64 @@
+package com.waadsoft.testing.user;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reclaims the tombstones of a {@link UserRepositoryImpl} in batches from a background thread, so that deletes only
+ * ever mark users as deleted and leave the clean-up off the hot path.
+ */
+public class TombstonePurger implements AutoCloseable {
+
+    private final UserRepositoryImpl userRepository;
+    private final int batchSize;
+    private final ScheduledExecutorService scheduler;
+
+    public TombstonePurger(UserRepositoryImpl userRepository, Duration interval, int batchSize) {
+        if (batchSize <= 0 || interval.isZero() || interval.isNegative()) {
+            throw new IllegalArgumentException("Invalid purge schedule specified!");
+        }
+        this.userRepository = requireNonNull(userRepository);
+        this.batchSize = batchSize;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tombstone-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::purge, interval.toNanos(), interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Purges batches until a batch comes back short, releasing the repository's lock between batches.
+     */
+    void purge() {
+        while (userRepository.purgeTombstones(batchSize) == batchSize) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
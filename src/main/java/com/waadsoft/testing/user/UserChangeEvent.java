@@ -0,0 +1,75 @@
+package com.waadsoft.testing.user;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A single mutation of a {@link UserRepository}, as published on its change feed.
+ */
+public final class UserChangeEvent {
+
+    public enum Type {
+        ADDED, UPDATED, DELETED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final User before;
+    private final User after;
+
+    UserChangeEvent(long sequence, Type type, User before, User after) {
+        this.sequence = sequence;
+        this.type = requireNonNull(type);
+        this.before = before;
+        this.after = after;
+    }
+
+    /*---------------------------------------------------------
+    |       A C C E S S O R S    /    M O D I F I E R S       |
+    ==========================================================*/
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the user as it was before the change, {@code null} for {@link Type#ADDED}
+     */
+    public User getBefore() {
+        return before;
+    }
+
+    /**
+     * @return the user as it is after the change, {@code null} for {@link Type#DELETED}
+     */
+    public User getAfter() {
+        return after;
+    }
+
+    /*---------------------------------------------------------
+    |   H A S H C O D E  /  E Q U A L S  /  T O S T R I N G   |
+    ==========================================================*/
+    @Override
+    public String toString() {
+        return "UserChangeEvent{" + sequence + ", " + type + '}';
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,165 @@
+package com.waadsoft.testing.user;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded ring buffer of {@link UserChangeEvent}s. Appends never block nor allocate beyond the event
+ * itself; subscribers pull events according to their demand and are failed if the writer laps them.
+ * <p>
+ * Appends must be serialized by the owning repository. They only publish the new sequence: each subscription is
+ * then drained by a task of its own on the delivery executor, so a slow subscriber never holds up the writer.
+ */
+class UserChangeLog {
+
+    private final AtomicReferenceArray<UserChangeEvent> slots;
+    private final int mask;
+    private final AtomicLong lastSequence = new AtomicLong();
+    private final List<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Executor executor;
+
+    UserChangeLog(int capacity) {
+        this(capacity, defaultExecutor());
+    }
+
+    UserChangeLog(int capacity, Executor executor) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Change log capacity must be a power of two!");
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.executor = executor;
+    }
+
+    /**
+     * Same choice as {@link java.util.concurrent.SubmissionPublisher}: the common pool, unless it can't run tasks in
+     * parallel, in which case each task gets a thread of its own.
+     */
+    private static Executor defaultExecutor() {
+        return ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : task -> new Thread(task).start();
+    }
+
+    UserChangeEvent append(UserChangeEvent.Type type, User before, User after) {
+        long sequence = lastSequence.get() + 1;
+        UserChangeEvent event = new UserChangeEvent(sequence, type, before, after);
+        slots.set(indexOf(sequence), event);
+        lastSequence.set(sequence);
+        subscriptions.forEach(ChangeSubscription::signal);
+        return event;
+    }
+
+    long lastSequence() {
+        return lastSequence.get();
+    }
+
+    /**
+     * @param fromSequence the last sequence already seen by the subscriber, {@code 0} to start from the beginning
+     */
+    Flow.Publisher<UserChangeEvent> publisher(long fromSequence) {
+        if (fromSequence < 0) {
+            throw new IllegalArgumentException("Invalid sequence specified!");
+        }
+        return subscriber -> {
+            ChangeSubscription subscription = new ChangeSubscription(subscriber, fromSequence + 1);
+            subscriptions.add(subscription);
+            subscriber.onSubscribe(subscription);
+            subscription.signal();
+        };
+    }
+
+    private int indexOf(long sequence) {
+        return (int) (sequence & mask);
+    }
+
+    private final class ChangeSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super UserChangeEvent> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private long nextSequence;
+
+        private ChangeSubscription(Flow.Subscriber<? super UserChangeEvent> subscriber, long nextSequence) {
+            this.subscriber = subscriber;
+            this.nextSequence = nextSequence;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Schedules a drain, unless one is already scheduled or running, in which case that one goes around again.
+         */
+        private void signal() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                while (!cancelled && demand.get() > 0 && nextSequence <= lastSequence.get()) {
+                    UserChangeEvent event = slots.get(indexOf(nextSequence));
+                    if (event == null || event.getSequence() != nextSequence) {
+                        fail(new IllegalStateException("Change " + nextSequence + " is no longer retained!"));
+                        return;
+                    }
+                    nextSequence++;
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(event);
+                    } catch (RuntimeException e) {
+                        // rule 2.13: a subscriber that throws is considered cancelled, and told so
+                        fail(e);
+                        return;
+                    }
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void fail(Throwable error) {
+            if (!cancelled) {
+                cancel();
+                subscriber.onError(error);
+            }
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
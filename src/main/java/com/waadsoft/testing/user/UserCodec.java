@@ -0,0 +1,287 @@
+package com.waadsoft.testing.user;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+
+/**
+ * Compact binary format for {@link User}:
+ * <pre>
+ *   version:u8 | userId:varint | usernameLength:varint | username:utf8 | emailLength:varint | email:utf8
+ * </pre>
+ * The user ID is zig-zag encoded and shifted by one so that {@code 0} stands for a missing ID.
+ * Encoding writes straight into the target buffer, and {@link View} reads fields in place.
+ */
+public final class UserCodec {
+
+    public static final byte VERSION = 1;
+
+    private UserCodec() {
+    }
+
+    public static int encodedLength(User user) {
+        int usernameLength = utf8Length(user.getUsername());
+        int emailLength = utf8Length(user.getEmail());
+        return 1 + varintLength(encodeId(user.getUserId()))
+                + varintLength(usernameLength) + usernameLength
+                + varintLength(emailLength) + emailLength;
+    }
+
+    /**
+     * Writes the user at the buffer's position and advances it.
+     *
+     * @throws java.nio.BufferOverflowException if the buffer has less than {@link #encodedLength(User)} bytes remaining
+     */
+    public static void encode(User user, ByteBuffer target) {
+        if (isNull(user)) {
+            throw new IllegalArgumentException("Invalid user specified!");
+        }
+        target.put(VERSION);
+        putVarint(target, encodeId(user.getUserId()));
+        putString(target, user.getUsername());
+        putString(target, user.getEmail());
+    }
+
+    /**
+     * Reads the user at the buffer's position and advances it.
+     */
+    public static User decode(ByteBuffer source) {
+        View view = new View().wrap(source, source.position());
+        User user = new User(view.getUserId(), view.getUsername(), view.getEmail());
+        source.position(source.position() + view.encodedLength());
+        return user;
+    }
+
+    /**
+     * Reusable flyweight over an encoded user. It never copies the buffer and only materializes strings on demand.
+     */
+    public static final class View {
+
+        private ByteBuffer buffer;
+        private int offset;
+        private long encodedId;
+        private int usernameOffset;
+        private int usernameLength;
+        private int emailOffset;
+        private int emailLength;
+
+        public View wrap(ByteBuffer buffer, int offset) {
+            byte version = buffer.get(offset);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported user format version: " + version);
+            }
+            this.buffer = buffer;
+            this.offset = offset;
+            int position = offset + 1;
+            this.encodedId = getVarint(buffer, position);
+            position += varintLength(encodedId);
+            this.usernameLength = (int) getVarint(buffer, position);
+            this.usernameOffset = position + varintLength(usernameLength);
+            position = usernameOffset + usernameLength;
+            this.emailLength = (int) getVarint(buffer, position);
+            this.emailOffset = position + varintLength(emailLength);
+            if (emailOffset + emailLength > buffer.limit()) {
+                throw new BufferUnderflowException();
+            }
+            return this;
+        }
+
+        public int encodedLength() {
+            return emailOffset + emailLength - offset;
+        }
+
+        public Integer getUserId() {
+            return decodeId(encodedId);
+        }
+
+        public String getUsername() {
+            return getString(buffer, usernameOffset, usernameLength);
+        }
+
+        public String getEmail() {
+            return getString(buffer, emailOffset, emailLength);
+        }
+
+        public boolean usernameEquals(String username) {
+            return utf8Equals(buffer, usernameOffset, usernameLength, username);
+        }
+
+        public boolean emailEquals(String email) {
+            return utf8Equals(buffer, emailOffset, emailLength, email);
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                   V A R I N T S                         |
+    ==========================================================*/
+    private static long encodeId(Integer userId) {
+        if (isNull(userId)) {
+            return 0;
+        }
+        return (((userId << 1) ^ (userId >> 31)) & 0xFFFFFFFFL) + 1;
+    }
+
+    private static Integer decodeId(long encodedId) {
+        if (encodedId == 0) {
+            return null;
+        }
+        int zigzag = (int) (encodedId - 1);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static void putVarint(ByteBuffer target, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    private static long getVarint(ByteBuffer source, int position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = source.get(position++);
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint!");
+    }
+
+    /*---------------------------------------------------------
+    |                   S T R I N G S                         |
+    ==========================================================*/
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putString(ByteBuffer target, String value) {
+        putVarint(target, utf8Length(value));
+        for (int i = 0; i < value.length(); i++) {
+            int codePoint = value.charAt(i);
+            if (Character.isHighSurrogate((char) codePoint) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                codePoint = Character.toCodePoint((char) codePoint, value.charAt(++i));
+            } else if (Character.isSurrogate((char) codePoint)) {
+                codePoint = '?';
+            }
+            putCodePoint(target, codePoint);
+        }
+    }
+
+    private static void putCodePoint(ByteBuffer target, int codePoint) {
+        if (codePoint < 0x80) {
+            target.put((byte) codePoint);
+        } else if (codePoint < 0x800) {
+            target.put((byte) (0xC0 | (codePoint >> 6)));
+            target.put((byte) (0x80 | (codePoint & 0x3F)));
+        } else if (codePoint < 0x10000) {
+            target.put((byte) (0xE0 | (codePoint >> 12)));
+            target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            target.put((byte) (0x80 | (codePoint & 0x3F)));
+        } else {
+            target.put((byte) (0xF0 | (codePoint >> 18)));
+            target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            target.put((byte) (0x80 | (codePoint & 0x3F)));
+        }
+    }
+
+    private static String getString(ByteBuffer source, int offset, int length) {
+        if (source.hasArray()) {
+            return new String(source.array(), source.arrayOffset() + offset, length, UTF_8);
+        }
+        return UTF_8.decode(source.slice(offset, length)).toString();
+    }
+
+    /**
+     * Compares the encoded field with the UTF-8 encoding of {@code value}, code point by code point, without decoding
+     * the field or encoding the value into a new array.
+     */
+    private static boolean utf8Equals(ByteBuffer source, int offset, int length, String value) {
+        if (isNull(value) || value.length() > length) {
+            return false;
+        }
+        int position = offset;
+        int end = offset + length;
+        for (int i = 0; i < value.length(); i++) {
+            int codePoint = value.charAt(i);
+            if (Character.isHighSurrogate((char) codePoint) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                codePoint = Character.toCodePoint((char) codePoint, value.charAt(++i));
+            } else if (Character.isSurrogate((char) codePoint)) {
+                // encoded as '?', so the field never decodes back to this value
+                return false;
+            }
+            int bytes = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            if (end - position < bytes || !codePointEquals(source, position, codePoint, bytes)) {
+                return false;
+            }
+            position += bytes;
+        }
+        return position == end;
+    }
+
+    private static boolean codePointEquals(ByteBuffer source, int position, int codePoint, int bytes) {
+        if (bytes == 1) {
+            return source.get(position) == (byte) codePoint;
+        }
+        int shift = 6 * (bytes - 1);
+        int leading = bytes == 2 ? 0xC0 : bytes == 3 ? 0xE0 : 0xF0;
+        if (source.get(position) != (byte) (leading | (codePoint >> shift))) {
+            return false;
+        }
+        for (int i = 1; i < bytes; i++) {
+            shift -= 6;
+            if (source.get(position + i) != (byte) (0x80 | ((codePoint >> shift) & 0x3F))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
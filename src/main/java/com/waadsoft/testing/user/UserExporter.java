@@ -0,0 +1,96 @@
+package com.waadsoft.testing.user;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Streams the content of a {@link UserRepository} to a channel through a single reusable buffer,
+ * visiting users with {@link UserRepository#forEach(java.util.function.Consumer)} instead of copying them.
+ */
+public class UserExporter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final UserRepository userRepository;
+    private final UserFormat format;
+    private final int bufferSize;
+
+    public UserExporter(UserRepository userRepository, UserFormat format) {
+        this(userRepository, format, DEFAULT_BUFFER_SIZE);
+    }
+
+    public UserExporter(UserRepository userRepository, UserFormat format, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size!");
+        }
+        this.userRepository = requireNonNull(userRepository);
+        this.format = requireNonNull(format);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Exports every user to the channel, without closing it.
+     *
+     * @return the number of users written
+     */
+    public long exportTo(WritableByteChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        long[] exported = {0};
+        buffer.put(format.header());
+        userRepository.forEach(user -> {
+            write(user, buffer, channel);
+            exported[0]++;
+        });
+        flush(buffer, channel);
+        return exported[0];
+    }
+
+    private void write(User user, ByteBuffer buffer, WritableByteChannel channel) {
+        int mark = buffer.position();
+        try {
+            format.write(user, buffer);
+        } catch (BufferOverflowException e) {
+            buffer.position(mark);
+            flush(buffer, channel);
+            try {
+                format.write(user, buffer);
+            } catch (BufferOverflowException tooLarge) {
+                throw new IllegalArgumentException("User record larger than the buffer size of " + bufferSize + " bytes!");
+            }
+        }
+    }
+
+    private void flush(ByteBuffer buffer, WritableByteChannel channel) {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,358 @@
+package com.waadsoft.testing.user;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Record formats understood by {@link UserImporter} and {@link UserExporter}.
+ * <p>
+ * Text formats hold one user per line, so a chunk of bytes can always be cut after its last {@code '\n'}.
+ */
+public enum UserFormat {
+
+    /**
+     * {@code userId,username,email} lines, with RFC 4180 quoting.
+     */
+    CSV {
+        private static final String HEADER = "userId,username,email";
+
+        @Override
+        byte[] header() {
+            return (HEADER + '\n').getBytes(UTF_8);
+        }
+
+        @Override
+        String toLine(User user) {
+            return id(user) + "," + quote(user.getUsername()) + "," + quote(user.getEmail());
+        }
+
+        @Override
+        User fromLine(String line) {
+            if (line.equals(HEADER)) {
+                return null;
+            }
+            String[] fields = new String[3];
+            int field = 0;
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else if (c == '"') {
+                        quoted = false;
+                    } else {
+                        value.append(c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    if (field == 2) {
+                        throw malformed(line);
+                    }
+                    fields[field++] = value.toString();
+                    value.setLength(0);
+                } else {
+                    value.append(c);
+                }
+            }
+            if (field != 2 || quoted) {
+                throw malformed(line);
+            }
+            fields[2] = value.toString();
+            return new User(fields[0].isEmpty() ? null : Integer.valueOf(fields[0]), fields[1], fields[2]);
+        }
+
+        private String quote(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    },
+
+    /**
+     * Newline-delimited JSON objects: {@code {"userId":1,"username":"...","email":"..."}}.
+     */
+    NDJSON {
+        @Override
+        String toLine(User user) {
+            StringBuilder json = new StringBuilder("{\"userId\":").append(id(user));
+            if (user.getUserId() == null) {
+                json.append("null");
+            }
+            json.append(",\"username\":");
+            appendJsonString(json, user.getUsername());
+            json.append(",\"email\":");
+            appendJsonString(json, user.getEmail());
+            return json.append('}').toString();
+        }
+
+        @Override
+        User fromLine(String line) {
+            JsonObjectReader reader = new JsonObjectReader(line);
+            Integer userId = null;
+            String username = null;
+            String email = null;
+            while (reader.nextField()) {
+                switch (reader.name()) {
+                    case "userId":
+                        String number = reader.rawValue();
+                        userId = number.equals("null") ? null : Integer.valueOf(number);
+                        break;
+                    case "username":
+                        username = reader.stringValue();
+                        break;
+                    case "email":
+                        email = reader.stringValue();
+                        break;
+                    default:
+                        reader.rawValue();
+                }
+            }
+            if (username == null || email == null) {
+                throw malformed(line);
+            }
+            return new User(userId, username, email);
+        }
+    },
+
+    /**
+     * Back-to-back {@link UserCodec} records.
+     */
+    BINARY {
+        @Override
+        int recordsEnd(ByteBuffer chunk) {
+            UserCodec.View view = new UserCodec.View();
+            int position = chunk.position();
+            while (position < chunk.limit()) {
+                try {
+                    position += view.wrap(chunk, position).encodedLength();
+                } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                    break;
+                }
+            }
+            return position;
+        }
+
+        @Override
+        void parse(ByteBuffer chunk, List<User> users) {
+            while (chunk.hasRemaining()) {
+                users.add(UserCodec.decode(chunk));
+            }
+        }
+
+        @Override
+        void write(User user, ByteBuffer target) {
+            UserCodec.encode(user, target);
+        }
+    };
+
+    /**
+     * @return bytes written once before the first record
+     */
+    byte[] header() {
+        return new byte[0];
+    }
+
+    String toLine(User user) {
+        throw new UnsupportedOperationException(this + " is not a line-based format!");
+    }
+
+    /**
+     * @return the parsed user, {@code null} if the line carries no user
+     */
+    User fromLine(String line) {
+        throw new UnsupportedOperationException(this + " is not a line-based format!");
+    }
+
+    /**
+     * @return the position right after the last complete record of the chunk
+     */
+    int recordsEnd(ByteBuffer chunk) {
+        for (int i = chunk.limit() - 1; i >= chunk.position(); i--) {
+            if (chunk.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return chunk.position();
+    }
+
+    /**
+     * Parses complete records, plus a last unterminated one for text formats.
+     */
+    void parse(ByteBuffer chunk, List<User> users) {
+        String text = UTF_8.decode(chunk).toString();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String line = text.substring(start, end > start && text.charAt(end - 1) == '\r' ? end - 1 : end);
+            if (!line.isBlank()) {
+                User user = fromLine(line);
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * @throws java.nio.BufferOverflowException if the record does not fit in the target
+     */
+    void write(User user, ByteBuffer target) {
+        String line = toLine(user);
+        if (line.indexOf('\n') >= 0 || line.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Line breaks are not supported in " + this + " records!");
+        }
+        target.put((line + '\n').getBytes(UTF_8));
+    }
+
+    private static String id(User user) {
+        return user.getUserId() == null ? "" : user.getUserId().toString();
+    }
+
+    private static IllegalArgumentException malformed(String line) {
+        return new IllegalArgumentException("Malformed record: " + line);
+    }
+
+    private static void appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Minimal reader for the flat JSON objects written by {@link #NDJSON}.
+     */
+    private static final class JsonObjectReader {
+
+        private final String json;
+        private int position;
+        private String name;
+
+        private JsonObjectReader(String json) {
+            this.json = json;
+            skipWhitespace();
+            expect('{');
+        }
+
+        boolean nextField() {
+            skipWhitespace();
+            if (peek() == '}') {
+                return false;
+            }
+            if (name != null) {
+                expect(',');
+                skipWhitespace();
+            }
+            name = stringValue();
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            return true;
+        }
+
+        String name() {
+            return name;
+        }
+
+        String stringValue() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        value.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+        }
+
+        String rawValue() {
+            if (peek() == '"') {
+                return stringValue();
+            }
+            int start = position;
+            while (position < json.length() && json.charAt(position) != ',' && json.charAt(position) != '}') {
+                position++;
+            }
+            return json.substring(start, position).trim();
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+                position++;
+            }
+        }
+
+        private char peek() {
+            if (position >= json.length()) {
+                throw malformed(json);
+            }
+            return json.charAt(position);
+        }
+
+        private char next() {
+            char c = peek();
+            position++;
+            return c;
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw malformed(json);
+            }
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,170 @@
+package com.waadsoft.testing.user;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Streams users from a channel into a {@link UserRepository}.
+ * <p>
+ * The input is read in fixed-size chunks cut on record boundaries, chunks are parsed in parallel on the
+ * given executor, and the parsed users are added in batches, in input order.
+ * At most {@code maxChunksInFlight} chunks are held at once, so memory stays bounded whatever the input size.
+ * <p>
+ * Users with an ID keep it, through {@link UserRepository#restore(User)}, so an export imports back unchanged. Users
+ * without one are given new IDs with {@link UserRepository#addAll(java.util.Collection)}, after those of their batch
+ * were restored. A record whose ID was already given to an earlier user fails with {@link DuplicateUserException}.
+ */
+public class UserImporter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private final UserRepository userRepository;
+    private final UserFormat format;
+    private final int chunkSize;
+    private final int batchSize;
+    private final Executor executor;
+    private final int maxChunksInFlight;
+
+    public UserImporter(UserRepository userRepository, UserFormat format) {
+        this(userRepository, format, DEFAULT_CHUNK_SIZE, DEFAULT_BATCH_SIZE,
+                ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism() + 1);
+    }
+
+    public UserImporter(UserRepository userRepository, UserFormat format, int chunkSize, int batchSize,
+                        Executor executor, int maxChunksInFlight) {
+        if (chunkSize <= 0 || batchSize <= 0 || maxChunksInFlight <= 0) {
+            throw new IllegalArgumentException("Invalid import settings!");
+        }
+        this.userRepository = requireNonNull(userRepository);
+        this.format = requireNonNull(format);
+        this.chunkSize = chunkSize;
+        this.batchSize = batchSize;
+        this.executor = requireNonNull(executor);
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+
+    /**
+     * Imports every record of the channel, without closing it.
+     *
+     * @return the number of users added
+     */
+    public long importFrom(ReadableByteChannel channel) {
+        Deque<CompletableFuture<List<User>>> inFlight = new ArrayDeque<>();
+        List<User> batch = new ArrayList<>(batchSize);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize);
+        long imported = 0;
+        boolean endOfInput = false;
+
+        while (!endOfInput) {
+            endOfInput = fill(channel, buffer);
+            buffer.flip();
+            int end = endOfInput ? buffer.limit() : format.recordsEnd(buffer);
+            if (end == buffer.position() && !endOfInput) {
+                throw new IllegalArgumentException("Record larger than the chunk size of " + chunkSize + " bytes!");
+            }
+            ByteBuffer chunk = copy(buffer, end);
+            buffer.position(end);
+            buffer.compact();
+
+            if (inFlight.size() == maxChunksInFlight) {
+                imported += drain(inFlight.removeFirst(), batch);
+            }
+            inFlight.addLast(CompletableFuture.supplyAsync(() -> parse(chunk), executor));
+        }
+        while (!inFlight.isEmpty()) {
+            imported += drain(inFlight.removeFirst(), batch);
+        }
+        return imported + flush(batch);
+    }
+
+    private boolean fill(ReadableByteChannel channel, ByteBuffer buffer) {
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer copy(ByteBuffer buffer, int end) {
+        ByteBuffer chunk = ByteBuffer.allocate(end - buffer.position());
+        chunk.put(buffer.duplicate().limit(end)).flip();
+        return chunk;
+    }
+
+    private List<User> parse(ByteBuffer chunk) {
+        List<User> parsed = new ArrayList<>();
+        format.parse(chunk, parsed);
+        return parsed;
+    }
+
+    private long drain(CompletableFuture<List<User>> parsed, List<User> batch) {
+        long imported = 0;
+        List<User> users;
+        try {
+            users = parsed.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        for (User user : users) {
+            batch.add(user);
+            if (batch.size() == batchSize) {
+                imported += flush(batch);
+            }
+        }
+        return imported;
+    }
+
+    private int flush(List<User> batch) {
+        int added = 0;
+        List<User> newUsers = new ArrayList<>();
+        for (User user : batch) {
+            if (isNull(user.getUserId())) {
+                newUsers.add(user);
+            } else {
+                userRepository.restore(user);
+                added++;
+            }
+        }
+        if (!newUsers.isEmpty()) {
+            added += userRepository.addAll(newUsers).size();
+        }
+        batch.clear();
+        return added;
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,111 @@
+package com.waadsoft.testing.user;
+
+import java.text.Normalizer;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Turns emails and usernames into the keys a repository matches on, so that e.g. {@code Foo@X.com} and
+ * {@code foo@x.com} are the same user. The same normalization applies when storing users and when querying.
+ */
+public final class UserKeyNormalizer {
+
+    public enum Option {
+        /**
+         * Unicode compatibility composition, e.g. full-width letters become ASCII ones.
+         */
+        NFKC,
+        /**
+         * Locale-independent lower-casing.
+         */
+        CASE_FOLDING,
+        /**
+         * Ignores dots and {@code +tag} suffixes in the local part of Gmail addresses.
+         */
+        GMAIL_ADDRESSING
+    }
+
+    private static final UserKeyNormalizer EXACT = new UserKeyNormalizer(EnumSet.noneOf(Option.class));
+
+    private final Set<Option> options;
+
+    private UserKeyNormalizer(Set<Option> options) {
+        this.options = options;
+    }
+
+    /**
+     * @return a normalizer matching emails and usernames exactly as given
+     */
+    public static UserKeyNormalizer exact() {
+        return EXACT;
+    }
+
+    public static UserKeyNormalizer of(Option first, Option... others) {
+        return new UserKeyNormalizer(EnumSet.of(first, others));
+    }
+
+    public String normalizeUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+        return fold(username);
+    }
+
+    public String normalizeEmail(String email) {
+        if (email == null) {
+            return null;
+        }
+        String folded = fold(email);
+        if (!options.contains(Option.GMAIL_ADDRESSING)) {
+            return folded;
+        }
+        int at = folded.lastIndexOf('@');
+        if (at < 0) {
+            return folded;
+        }
+        String domain = folded.substring(at + 1);
+        if (!domain.equalsIgnoreCase("gmail.com") && !domain.equalsIgnoreCase("googlemail.com")) {
+            return folded;
+        }
+        String local = folded.substring(0, at);
+        int plus = local.indexOf('+');
+        if (plus >= 0) {
+            local = local.substring(0, plus);
+        }
+        return local.replace(".", "") + "@gmail.com";
+    }
+
+    private String fold(String value) {
+        String normalized = value;
+        if (options.contains(Option.NFKC) && !Normalizer.isNormalized(normalized, Normalizer.Form.NFKC)) {
+            normalized = Normalizer.normalize(normalized, Normalizer.Form.NFKC);
+        }
+        if (options.contains(Option.CASE_FOLDING)) {
+            normalized = normalized.toLowerCase(Locale.ROOT);
+        }
+        return normalized;
+    }
+
+    @Override
+    public String toString() {
+        return "UserKeyNormalizer" + options;
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
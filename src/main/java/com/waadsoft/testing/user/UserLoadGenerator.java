@@ -0,0 +1,221 @@
+package com.waadsoft.testing.user;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Drives a {@link UserService} with a weighted mix of operations over users picked by a {@link KeyDistribution}.
+ * <p>
+ * With a target rate the load is open: operations are scheduled at fixed intervals whatever the service does, and
+ * their response time counts from the scheduled start, so a stall shows up in every operation it delayed. Without
+ * one, each worker issues its next operation as soon as the previous one returns.
+ */
+public class UserLoadGenerator {
+
+    public enum Operation {
+        GET_BY_ID, GET_BY_EMAIL, GET_BY_USERNAME, UPDATE, ADD
+    }
+
+    private static final AtomicInteger GENERATORS = new AtomicInteger();
+
+    private final UserService userService;
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final KeyDistribution keys;
+    private final int concurrency;
+    private final int targetRate;
+    private final Duration interval;
+    private final String prefix = "load" + GENERATORS.incrementAndGet();
+    private final AtomicLong addedUsers = new AtomicLong();
+    private Integer[] userIds;
+
+    public UserLoadGenerator(UserService userService, Map<Operation, Integer> mix, KeyDistribution keys,
+                             int concurrency, int targetRate) {
+        this(userService, mix, keys, concurrency, targetRate, Duration.ofSeconds(1));
+    }
+
+    /**
+     * @param targetRate operations per second across all workers, {@code 0} to run unthrottled
+     * @param interval   granularity of {@link LoadReport#getOperationsPerInterval()}
+     */
+    public UserLoadGenerator(UserService userService, Map<Operation, Integer> mix, KeyDistribution keys,
+                             int concurrency, int targetRate, Duration interval) {
+        if (concurrency <= 0 || targetRate < 0 || interval.isZero() || interval.isNegative()) {
+            throw new IllegalArgumentException("Invalid load specified!");
+        }
+        Map<Operation, Integer> weights = new EnumMap<>(mix);
+        weights.values().removeIf(weight -> weight <= 0);
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("Invalid operation mix specified!");
+        }
+        this.userService = requireNonNull(userService);
+        this.keys = requireNonNull(keys);
+        this.operations = weights.keySet().toArray(Operation[]::new);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int index = 0; index < operations.length; index++) {
+            total += weights.get(operations[index]);
+            cumulativeWeights[index] = total;
+        }
+        this.concurrency = concurrency;
+        this.targetRate = targetRate;
+        this.interval = interval;
+    }
+
+    /**
+     * Adds the {@link KeyDistribution#keySpace()} users the operations pick from. Called by the first {@link #run}.
+     */
+    public synchronized void populate() {
+        if (userIds != null) {
+            return;
+        }
+        Integer[] ids = new Integer[keys.keySpace()];
+        for (int key = 0; key < ids.length; key++) {
+            ids[key] = userService.addUser(new User(usernameOf(key), emailOf(key))).getUserId();
+        }
+        userIds = ids;
+    }
+
+    public LoadReport run(Duration duration) {
+        populate();
+        LatencyHistogram responseTimes = new LatencyHistogram();
+        LatencyHistogram serviceTimes = new LatencyHistogram();
+        LongAdder completed = new LongAdder();
+        LongAdder errors = new LongAdder();
+        AtomicLong tickets = new AtomicLong();
+        long intervalNanos = interval.toNanos();
+        AtomicLongArray perInterval = new AtomicLongArray((int) ((duration.toNanos() - 1) / intervalNanos) + 1);
+        long start = System.nanoTime();
+        long deadline = start + duration.toNanos();
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        SplittableRandom seeds = new SplittableRandom();
+        for (int worker = 0; worker < concurrency; worker++) {
+            SplittableRandom random = seeds.split();
+            workers.execute(() -> {
+                while (true) {
+                    long scheduled;
+                    if (targetRate > 0) {
+                        scheduled = start + (long) (tickets.getAndIncrement() * 1e9 / targetRate);
+                        if (scheduled >= deadline) {
+                            return;
+                        }
+                        waitUntil(scheduled);
+                    } else {
+                        scheduled = System.nanoTime();
+                        if (scheduled >= deadline) {
+                            return;
+                        }
+                    }
+                    long began = System.nanoTime();
+                    try {
+                        execute(pick(random), keys.next(random));
+                    } catch (RuntimeException e) {
+                        errors.increment();
+                    }
+                    long ended = System.nanoTime();
+                    responseTimes.record(ended - scheduled);
+                    serviceTimes.record(ended - began);
+                    completed.increment();
+                    perInterval.incrementAndGet((int) Math.min((ended - start) / intervalNanos, perInterval.length() - 1));
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        List<Long> operationsPerInterval = new ArrayList<>(perInterval.length());
+        for (int index = 0; index < perInterval.length(); index++) {
+            operationsPerInterval.add(perInterval.get(index));
+        }
+        return new LoadReport(completed.sum(), errors.sum(), Duration.ofNanos(System.nanoTime() - start),
+                responseTimes, serviceTimes, interval, operationsPerInterval);
+    }
+
+    private Operation pick(SplittableRandom random) {
+        int roll = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int index = 0;
+        while (roll >= cumulativeWeights[index]) {
+            index++;
+        }
+        return operations[index];
+    }
+
+    private void execute(Operation operation, int key) {
+        switch (operation) {
+            case GET_BY_ID:
+                userService.getUserById(userIds[key]);
+                break;
+            case GET_BY_EMAIL:
+                userService.getUserByEmail(emailOf(key));
+                break;
+            case GET_BY_USERNAME:
+                userService.getUserByUsername(usernameOf(key));
+                break;
+            case UPDATE:
+                userService.updateUser(new User(userIds[key], usernameOf(key), emailOf(key)));
+                break;
+            case ADD:
+                long added = addedUsers.incrementAndGet();
+                userService.addUser(new User(prefix + "-added" + added, prefix + "-added" + added + "@load.test"));
+                break;
+            default:
+                throw new IllegalStateException("Unsupported operation: " + operation);
+        }
+    }
+
+    private String usernameOf(int key) {
+        return prefix + "-user" + key;
+    }
+
+    private String emailOf(int key) {
+        return prefix + "-user" + key + "@load.test";
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,111 @@
+package com.waadsoft.testing.user;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * Flight Recorder event for one {@link UserService} or {@link UserRepository} call, emitted by {@link JfrUserService}
+ * and {@link JfrUserRepository}. Only calls lasting at least the threshold are recorded: 10 ms unless the recording
+ * overrides it, e.g. {@code recording.enable(UserOperationEvent.NAME).withThreshold(Duration.ZERO)} or a {@code .jfc}
+ * setting. While no recording enables the event, an instrumented call costs little more than the call itself.
+ */
+@Name(UserOperationEvent.NAME)
+@Label("User Operation")
+@Category({"Waad Soft", "Users"})
+@Description("A UserService or UserRepository call")
+@Enabled
+@Threshold("10 ms")
+@StackTrace(false)
+public class UserOperationEvent extends Event {
+
+    public static final String NAME = "com.waadsoft.testing.user.UserOperation";
+
+    static final String INDEX = "index";
+    static final String SCAN = "scan";
+    static final String WRITE = "write";
+
+    @Label("Layer")
+    String layer;
+
+    @Label("Method")
+    String method;
+
+    @Label("Key Type")
+    @Description("id, email, username, emailDomain, several of them comma-separated for a union, or none")
+    String keyType;
+
+    @Label("Access Path")
+    @Description("index when served by a lookup structure, scan when every user is visited, write otherwise")
+    String accessPath;
+
+    @Label("Result Size")
+    @Description("Users returned or affected, -1 when the call failed")
+    int resultSize;
+
+    /**
+     * Whether a recording is capturing these events, so that describing an operation is worth its cost.
+     */
+    static boolean isRecording() {
+        return new UserOperationEvent().isEnabled();
+    }
+
+    /**
+     * Runs {@code call} inside an event, filling the fields only when the event is going to be committed.
+     */
+    static <T> T record(String layer, String method, String keyType, String accessPath, Supplier<T> call,
+                        ToIntFunction<? super T> resultSize) {
+        UserOperationEvent event = new UserOperationEvent();
+        event.begin();
+        T result = null;
+        boolean completed = false;
+        try {
+            result = call.get();
+            completed = true;
+            return result;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.layer = layer;
+                event.method = method;
+                event.keyType = keyType;
+                event.accessPath = accessPath;
+                event.resultSize = completed ? resultSize.applyAsInt(result) : -1;
+                event.commit();
+            }
+        }
+    }
+
+    static void record(String layer, String method, String keyType, String accessPath, Runnable call,
+                       int resultSize) {
+        record(layer, method, keyType, accessPath, () -> {
+            call.run();
+            return null;
+        }, ignored -> resultSize);
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
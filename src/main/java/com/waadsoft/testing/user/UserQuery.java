@@ -0,0 +1,216 @@
+package com.waadsoft.testing.user;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Declarative query for {@link UserRepository#find(UserQuery)}, built from composable conditions:
+ * <pre>
+ *   UserQuery.where(and(emailDomain("example.com"), usernameStartsWith("al"))).offset(20).limit(10)
+ * </pre>
+ * Results are ordered by user ID, so that {@link #offset(int)} and {@link #limit(int)} page consistently. Email and
+ * username equality follow the repository's key normalization, prefixes match the stored values as they are.
+ */
+public final class UserQuery {
+
+    private final Condition condition;
+    private final int offset;
+    private final int limit;
+
+    private UserQuery(Condition condition, int offset, int limit) {
+        this.condition = requireNonNull(condition);
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    public static UserQuery where(Condition condition) {
+        return new UserQuery(condition, 0, Integer.MAX_VALUE);
+    }
+
+    public UserQuery offset(int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Invalid page specified!");
+        }
+        return new UserQuery(condition, offset, limit);
+    }
+
+    public UserQuery limit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid page specified!");
+        }
+        return new UserQuery(condition, offset, limit);
+    }
+
+    public Condition getCondition() {
+        return condition;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public String toString() {
+        return "WHERE " + condition
+                + (offset > 0 ? " OFFSET " + offset : "")
+                + (limit < Integer.MAX_VALUE ? " LIMIT " + limit : "");
+    }
+
+    /*---------------------------------------------------------
+    |                  C O N D I T I O N S                    |
+    ==========================================================*/
+    public static Condition idEquals(Integer userId) {
+        return idIn(List.of(requireNonNull(userId)));
+    }
+
+    public static Condition idIn(Collection<Integer> userIds) {
+        return new Condition(Condition.Kind.ID_IN, List.copyOf(userIds), List.of());
+    }
+
+    /**
+     * IDs from {@code from} to {@code to}, both inclusive.
+     */
+    public static Condition idBetween(int from, int to) {
+        if (from > to) {
+            throw new IllegalArgumentException("Invalid ID range specified!");
+        }
+        return new Condition(Condition.Kind.ID_RANGE, List.of(from, to), List.of());
+    }
+
+    public static Condition emailEquals(String email) {
+        return emailIn(List.of(requireNonNull(email)));
+    }
+
+    public static Condition emailIn(Collection<String> emails) {
+        return new Condition(Condition.Kind.EMAIL_IN, List.copyOf(emails), List.of());
+    }
+
+    public static Condition usernameEquals(String username) {
+        return usernameIn(List.of(requireNonNull(username)));
+    }
+
+    public static Condition usernameIn(Collection<String> usernames) {
+        return new Condition(Condition.Kind.USERNAME_IN, List.copyOf(usernames), List.of());
+    }
+
+    public static Condition emailStartsWith(String prefix) {
+        return new Condition(Condition.Kind.EMAIL_PREFIX, List.of(requireNonNull(prefix)), List.of());
+    }
+
+    public static Condition usernameStartsWith(String prefix) {
+        return new Condition(Condition.Kind.USERNAME_PREFIX, List.of(requireNonNull(prefix)), List.of());
+    }
+
+    public static Condition emailDomain(String domain) {
+        return new Condition(Condition.Kind.EMAIL_DOMAIN, List.of(requireNonNull(domain)), List.of());
+    }
+
+    public static Condition and(Condition... conditions) {
+        return composite(Condition.Kind.AND, conditions);
+    }
+
+    public static Condition or(Condition... conditions) {
+        return composite(Condition.Kind.OR, conditions);
+    }
+
+    private static Condition composite(Condition.Kind kind, Condition... conditions) {
+        if (isNull(conditions) || conditions.length == 0) {
+            throw new IllegalArgumentException("Invalid conditions specified!");
+        }
+        return conditions.length == 1 ? conditions[0] : new Condition(kind, List.of(), Arrays.asList(conditions));
+    }
+
+    /**
+     * A node of the query's condition tree: a comparison on one user field, or an AND/OR of other conditions.
+     */
+    public static final class Condition {
+
+        public enum Kind {
+            ID_IN, ID_RANGE, EMAIL_IN, USERNAME_IN, EMAIL_PREFIX, USERNAME_PREFIX, EMAIL_DOMAIN, AND, OR
+        }
+
+        private final Kind kind;
+        private final List<?> values;
+        private final List<Condition> children;
+
+        private Condition(Kind kind, List<?> values, List<Condition> children) {
+            this.kind = kind;
+            this.values = values;
+            this.children = List.copyOf(children);
+        }
+
+        public Condition and(Condition other) {
+            return UserQuery.and(this, other);
+        }
+
+        public Condition or(Condition other) {
+            return UserQuery.or(this, other);
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public List<?> getValues() {
+            return values;
+        }
+
+        public List<Condition> getChildren() {
+            return children;
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case ID_IN:
+                    return "id" + inList(values);
+                case ID_RANGE:
+                    return "id BETWEEN " + values.get(0) + " AND " + values.get(1);
+                case EMAIL_IN:
+                    return "email" + inList(values);
+                case USERNAME_IN:
+                    return "username" + inList(values);
+                case EMAIL_PREFIX:
+                    return "email LIKE '" + values.get(0) + "%'";
+                case USERNAME_PREFIX:
+                    return "username LIKE '" + values.get(0) + "%'";
+                case EMAIL_DOMAIN:
+                    return "emailDomain = '" + values.get(0) + "'";
+                default:
+                    return children.stream().map(Condition::toString).collect(joining(" " + kind + " ", "(", ")"));
+            }
+        }
+
+        private static String inList(List<?> values) {
+            List<String> quoted = values.stream().map(value -> "'" + value + "'").collect(toList());
+            return quoted.size() == 1 ? " = " + quoted.get(0) : " IN (" + String.join(", ", quoted) + ")";
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,332 @@
+package com.waadsoft.testing.user;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Plans and runs {@link UserQuery} queries over the indexes of a repository. Each comparison that an index can answer
+ * gets an access path with an estimated row count; an AND is served by its cheapest child, an OR by the union of its
+ * children when all of them are indexed. Whatever the access path, the whole condition is then checked on every
+ * candidate. A scan is only used when no access path beats it, in parallel for large repositories.
+ */
+final class UserQueryPlanner {
+
+    static final int PARALLEL_SCAN_THRESHOLD = 10_000;
+
+    /**
+     * What the planner needs from a repository. Lookups only return live users.
+     */
+    interface Indexes {
+
+        int count();
+
+        Stream<User> users();
+
+        User findById(Integer userId);
+
+        User findByEmail(String email);
+
+        User findByUsername(String username);
+
+        /**
+         * IDs from {@code from} to {@code to}, both inclusive, in ascending order.
+         */
+        Collection<Integer> idsInRange(int from, int to);
+
+        /**
+         * IDs of the users in the domain, in ascending order.
+         */
+        Collection<Integer> idsByEmailDomain(String domain);
+
+        boolean emailEquals(User user, String email);
+
+        boolean usernameEquals(User user, String username);
+
+        boolean inEmailDomain(User user, String domain);
+    }
+
+    private final Indexes indexes;
+
+    UserQueryPlanner(Indexes indexes) {
+        this.indexes = indexes;
+    }
+
+    /**
+     * Access paths that yield users in ID order stop as soon as the page is full. The others keep the lowest IDs seen so
+     * far, up to the end of the page, rather than sorting every match.
+     */
+    List<User> execute(UserQuery query) {
+        UserQuery.Condition condition = query.getCondition();
+        Access access = plan(condition);
+        Stream<User> matches = access.candidates().filter(predicate(condition));
+        if (access.isOrderedById()) {
+            return matches.skip(query.getOffset()).limit(query.getLimit()).collect(toList());
+        }
+        long pageEnd = (long) query.getOffset() + query.getLimit();
+        return matches.collect(lowestIds(pageEnd)).values()
+                .stream()
+                .skip(query.getOffset())
+                .collect(toList());
+    }
+
+    /**
+     * Collects distinct users by ID, keeping at most the {@code max} lowest IDs.
+     */
+    private static Collector<User, ?, TreeMap<Integer, User>> lowestIds(long max) {
+        return Collector.of(TreeMap::new,
+                (lowest, user) -> keep(lowest, user, max),
+                (lowest, others) -> {
+                    others.values().forEach(user -> keep(lowest, user, max));
+                    return lowest;
+                });
+    }
+
+    private static void keep(TreeMap<Integer, User> lowest, User user, long max) {
+        if (lowest.size() == max && user.getUserId() > lowest.lastKey()) {
+            return;
+        }
+        lowest.putIfAbsent(user.getUserId(), user);
+        if (lowest.size() > max) {
+            lowest.pollLastEntry();
+        }
+    }
+
+    QueryPlan explain(UserQuery query) {
+        Access access = plan(query.getCondition());
+        long rows = Math.max(0, Math.min(access.estimatedRows() - query.getOffset(), query.getLimit()));
+        return new QueryPlan("Page", "offset=" + query.getOffset() + ", limit=" + query.getLimit(), rows,
+                List.of(new QueryPlan("Filter", query.getCondition().toString(), access.estimatedRows(),
+                        List.of(access.describe()))));
+    }
+
+    private Access plan(UserQuery.Condition condition) {
+        Access access = indexAccess(condition);
+        int count = indexes.count();
+        return isNull(access) || access.estimatedRows() >= count ? new Scan(count) : access;
+    }
+
+    /*---------------------------------------------------------
+    |                 A C C E S S   P A T H S                 |
+    ==========================================================*/
+
+    /**
+     * @return the cheapest indexed access path for the condition, or {@code null} when only a scan can answer it
+     */
+    private Access indexAccess(UserQuery.Condition condition) {
+        List<?> values = condition.getValues();
+        switch (condition.getKind()) {
+            case ID_IN:
+                return new Lookup("IdLookup", condition.toString(), values.size(), false, values::stream,
+                        value -> indexes.findById((Integer) value));
+            case ID_RANGE:
+                int from = (Integer) values.get(0);
+                int to = (Integer) values.get(1);
+                long estimatedRows = Math.min((long) to - from + 1, indexes.count());
+                return new Lookup("IdRangeScan", condition.toString(), estimatedRows, true,
+                        () -> indexes.idsInRange(from, to).stream(), value -> indexes.findById((Integer) value));
+            case EMAIL_IN:
+                return new Lookup("EmailLookup", condition.toString(), values.size(), false, values::stream,
+                        value -> indexes.findByEmail((String) value));
+            case USERNAME_IN:
+                return new Lookup("UsernameLookup", condition.toString(), values.size(), false, values::stream,
+                        value -> indexes.findByUsername((String) value));
+            case EMAIL_DOMAIN:
+                Collection<Integer> ids = indexes.idsByEmailDomain((String) values.get(0));
+                return new Lookup("EmailDomainLookup", condition.toString(), ids.size(), true, ids::stream,
+                        value -> indexes.findById((Integer) value));
+            case AND:
+                Access cheapest = null;
+                for (UserQuery.Condition child : condition.getChildren()) {
+                    Access access = indexAccess(child);
+                    if (!isNull(access) && (isNull(cheapest) || access.estimatedRows() < cheapest.estimatedRows())) {
+                        cheapest = access;
+                    }
+                }
+                return cheapest;
+            case OR:
+                List<Access> inputs = new ArrayList<>();
+                for (UserQuery.Condition child : condition.getChildren()) {
+                    Access access = indexAccess(child);
+                    if (isNull(access)) {
+                        return null;
+                    }
+                    inputs.add(access);
+                }
+                return new Union(inputs);
+            default:
+                return null;
+        }
+    }
+
+    private Predicate<User> predicate(UserQuery.Condition condition) {
+        List<?> values = condition.getValues();
+        switch (condition.getKind()) {
+            case ID_IN:
+                return user -> values.contains(user.getUserId());
+            case ID_RANGE:
+                return user -> user.getUserId() >= (Integer) values.get(0) && user.getUserId() <= (Integer) values.get(1);
+            case EMAIL_IN:
+                return user -> values.stream().anyMatch(email -> indexes.emailEquals(user, (String) email));
+            case USERNAME_IN:
+                return user -> values.stream().anyMatch(username -> indexes.usernameEquals(user, (String) username));
+            case EMAIL_PREFIX:
+                return user -> user.getEmail().startsWith((String) values.get(0));
+            case USERNAME_PREFIX:
+                return user -> user.getUsername().startsWith((String) values.get(0));
+            case EMAIL_DOMAIN:
+                return user -> indexes.inEmailDomain(user, (String) values.get(0));
+            case AND:
+                return condition.getChildren().stream().map(this::predicate).reduce(Predicate::and).orElseThrow();
+            default:
+                return condition.getChildren().stream().map(this::predicate).reduce(Predicate::or).orElseThrow();
+        }
+    }
+
+    private interface Access {
+
+        long estimatedRows();
+
+        Stream<User> candidates();
+
+        /**
+         * @return whether the candidates come once each, in ascending ID order
+         */
+        boolean isOrderedById();
+
+        QueryPlan describe();
+    }
+
+    private interface Resolver {
+        User resolve(Object key);
+    }
+
+    private static final class Lookup implements Access {
+        private final String operator;
+        private final String detail;
+        private final long estimatedRows;
+        private final boolean orderedById;
+        private final Supplier<Stream<?>> keys;
+        private final Resolver resolver;
+
+        /**
+         * @param orderedById whether the keys are distinct IDs in ascending order
+         */
+        private Lookup(String operator, String detail, long estimatedRows, boolean orderedById,
+                       Supplier<Stream<?>> keys, Resolver resolver) {
+            this.operator = operator;
+            this.detail = detail;
+            this.estimatedRows = estimatedRows;
+            this.orderedById = orderedById;
+            this.keys = keys;
+            this.resolver = resolver;
+        }
+
+        @Override
+        public long estimatedRows() {
+            return estimatedRows;
+        }
+
+        @Override
+        public Stream<User> candidates() {
+            return keys.get().map(resolver::resolve).filter(Objects::nonNull);
+        }
+
+        @Override
+        public boolean isOrderedById() {
+            return orderedById;
+        }
+
+        @Override
+        public QueryPlan describe() {
+            return new QueryPlan(operator, detail, estimatedRows, List.of());
+        }
+    }
+
+    private static final class Union implements Access {
+        private final List<Access> inputs;
+
+        private Union(List<Access> inputs) {
+            this.inputs = inputs;
+        }
+
+        @Override
+        public long estimatedRows() {
+            return inputs.stream().mapToLong(Access::estimatedRows).sum();
+        }
+
+        @Override
+        public Stream<User> candidates() {
+            return inputs.stream().flatMap(Access::candidates);
+        }
+
+        @Override
+        public boolean isOrderedById() {
+            return false;
+        }
+
+        @Override
+        public QueryPlan describe() {
+            return new QueryPlan("Union", "", estimatedRows(), inputs.stream().map(Access::describe).collect(toList()));
+        }
+    }
+
+    private final class Scan implements Access {
+        private final int count;
+
+        private Scan(int count) {
+            this.count = count;
+        }
+
+        private boolean isParallel() {
+            return count >= PARALLEL_SCAN_THRESHOLD;
+        }
+
+        @Override
+        public long estimatedRows() {
+            return count;
+        }
+
+        @Override
+        public Stream<User> candidates() {
+            Stream<User> users = indexes.users();
+            return isParallel() ? users.parallel() : users;
+        }
+
+        @Override
+        public boolean isOrderedById() {
+            return false;
+        }
+
+        @Override
+        public QueryPlan describe() {
+            return new QueryPlan(isParallel() ? "ParallelScan" : "Scan", "", count, List.of());
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
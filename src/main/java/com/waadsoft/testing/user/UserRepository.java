@@ -3,6 +3,8 @@ package com.waadsoft.testing.user;
 import java.util.List;
 import java.util.Optional;
 import java.util.Collection;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 
 /**
  *
@@ -12,22 +14,82 @@ public interface UserRepository {
 
     User add(User user);
 
+    /**
+     * Adds all the given users at once, or none of them if any is invalid or already exists.
+     */
+    List<User> addAll(Collection<User> users);
+
     User update(User user);
 
+    /**
+     * Adds a user with the ID it already has, as replicas do to apply their leader's changes.
+     *
+     * @throws DuplicateUserException if the ID, email or username belongs to a live user
+     */
+    User restore(User user);
+
     Optional<User> findById(Integer userId);
 
+    /**
+     * Same as {@link #findById(Integer)} without wrapping the result, for allocation-sensitive callers. Implementations
+     * should not box {@code userId} either.
+     *
+     * @return the user, {@code null} if not found
+     */
+    User findByIdOrNull(int userId);
+
     Optional<User> findByEmail(String email);
 
+    /**
+     * @return the user, {@code null} if not found
+     */
+    User findByEmailOrNull(String email);
+
     Optional<User> findByUsername(String username);
 
+    /**
+     * @return the user, {@code null} if not found
+     */
+    User findByUsernameOrNull(String username);
+
     List<User> findAll();
 
+    /**
+     * Visits every user without copying the repository content.
+     */
+    void forEach(Consumer<? super User> action);
+
     List<User> findAllById(Collection<Integer> ids);
 
     List<User> findAllByEmail(Collection<String> emails);
 
     List<User> findAllByUsername(Collection<String> usernames);
 
+    List<User> findAllByEmailDomain(String domain, int page, int size);
+
+    int countByEmailDomain(String domain);
+
+    /**
+     * Users with IDs from {@code from} to {@code to}, both inclusive, in ascending ID order, in O(log n + limit).
+     * Since IDs are never reused, asking for the IDs after the last one of a page gives stable pagination.
+     */
+    List<User> findByIdRange(int from, int to, int limit);
+
+    /**
+     * Same as {@link #findByIdRange(int, int, int)}, newest users first.
+     */
+    List<User> findByIdRangeDescending(int from, int to, int limit);
+
+    /**
+     * Runs the query through the cheapest index that can answer it, scanning only when none can.
+     */
+    List<User> find(UserQuery query);
+
+    /**
+     * Describes how {@link #find(UserQuery)} would run the query, without running it.
+     */
+    QueryPlan explain(UserQuery query);
+
     void delete(User user);
 
     void deleteById(Integer userId);
@@ -42,7 +104,30 @@ public interface UserRepository {
 
     void deleteAllByUsername(Collection<String> usernames);
 
+    /**
+     * Counts users in constant time, without locking.
+     */
     int count();
+
+    /**
+     * Publishes every mutation made to this repository, including the ones of the batch deletes.
+     *
+     * @param fromSequence the sequence of the last event already seen, {@code 0} to replay the retained history
+     */
+    Flow.Publisher<UserChangeEvent> changes(long fromSequence);
+
+    /**
+     * Sequence of the last change published by {@link #changes(long)}. Events reach subscribers asynchronously, so
+     * right after a write this is the sequence to wait for to see that write downstream.
+     */
+    long lastSequence();
+
+    /**
+     * Opens a consistent, read-only view of the repository as it is now. Writes made afterwards are not visible in it.
+     */
+    UserSnapshot snapshot();
+
+    RepositoryStats stats();
 }
 
 /*=============================================================================
@@ -1,74 +1,240 @@
 package com.waadsoft.testing.user;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.function.Predicate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static java.util.Objects.isNull;
 import static java.util.stream.Collectors.toList;
 
 /**
+ * Writes are serialized on the repository instance, reads never lock. A read spanning several users may observe
+ * concurrent writes; use {@link #snapshot()} for a consistent view.
+ * <p>
+ * Deletes leave a tombstone that lookups skip; user IDs are never reused. Each delete reclaims up to
+ * {@value #TOMBSTONES_PURGED_PER_DELETE} expired tombstones, a {@link TombstonePurger} reclaims the rest in batches.
+ * <p>
+ * Users are stored as given. The index entries of a user are keyed on its own email and username strings whenever
+ * normalization leaves them unchanged, and an update reuses the previous version's strings for unchanged fields.
+ * Strings are not pooled across users, split into parts, or kept as bytes.
+ *
  * @author Alassani ABODJI <abodjialassani[at]gmail.com>
  */
 public class UserRepositoryImpl implements UserRepository {
 
-    private final Map<Integer, User> users;
+    public static final int DEFAULT_CHANGE_LOG_CAPACITY = 1024;
+
+    private static final int MAP_ENTRY_BYTES = 32;
+    private static final int INTEGER_BYTES = 16;
+    private static final int USER_BYTES = 24;
+    private static final int USER_VERSION_BYTES = 32;
+    private static final int SKIP_LIST_ENTRY_BYTES = 40;
+    private static final int STRING_BYTES = 40;
+    private static final int REFERENCE_BYTES = 4;
+    private static final int MIN_HEADS_BY_ID = 1024;
+    private static final int TOMBSTONES_PURGED_PER_DELETE = 4;
+
+    private final ConcurrentMap<Integer, UserVersion> users;
+    /**
+     * Mirrors {@code users} for every ID below its length, so ID lookups don't box their key. It only grows while IDs
+     * stay dense, e.g. those handed out by {@link #add(User)}; sparse IDs are only in {@code users}.
+     */
+    private volatile AtomicReferenceArray<UserVersion> headsById;
+    private final NavigableSet<Integer> orderedUserIds;
+    private final ConcurrentMap<String, Integer> userIdsByEmail;
+    private final ConcurrentMap<String, Integer> userIdsByUsername;
+    private final ConcurrentMap<String, EmailDomainIds> userIdsByEmailDomain;
+    private final UserChangeLog changeLog;
+    private final UserKeyNormalizer keyNormalizer;
+    private final NavigableMap<Long, Integer> openSnapshots;
+    private final Set<Integer> versionedUserIds;
+    private final LongAdder userCount;
+    private final Duration undeleteWindow;
+    private final Deque<Integer> tombstones;
+    private final UserQueryPlanner queryPlanner;
+    private long version;
+    private int maxUserId;
+    private volatile boolean indexesReady = true;
+    private volatile CompletableFuture<Void> secondaryIndexes = CompletableFuture.completedFuture(null);
 
     public UserRepositoryImpl() {
+        this(DEFAULT_CHANGE_LOG_CAPACITY);
+    }
+
+    public UserRepositoryImpl(int changeLogCapacity) {
+        this(changeLogCapacity, UserKeyNormalizer.exact());
+    }
+
+    public UserRepositoryImpl(UserKeyNormalizer keyNormalizer) {
+        this(DEFAULT_CHANGE_LOG_CAPACITY, keyNormalizer);
+    }
+
+    public UserRepositoryImpl(int changeLogCapacity, UserKeyNormalizer keyNormalizer) {
+        this(changeLogCapacity, keyNormalizer, Duration.ZERO);
+    }
+
+    /**
+     * @param keyNormalizer  decides which emails and usernames are considered the same, on writes and on lookups
+     * @param undeleteWindow how long a deleted user can be restored with {@link #undeleteById(Integer)}
+     */
+    public UserRepositoryImpl(int changeLogCapacity, UserKeyNormalizer keyNormalizer, Duration undeleteWindow) {
         System.out.println("Instance created...");
-        this.users = new HashMap<>();
+        this.users = new ConcurrentHashMap<>();
+        this.headsById = new AtomicReferenceArray<>(MIN_HEADS_BY_ID);
+        this.orderedUserIds = new ConcurrentSkipListSet<>();
+        this.userIdsByEmail = new ConcurrentHashMap<>();
+        this.userIdsByUsername = new ConcurrentHashMap<>();
+        this.userIdsByEmailDomain = new ConcurrentHashMap<>();
+        this.changeLog = new UserChangeLog(changeLogCapacity);
+        this.keyNormalizer = Objects.requireNonNull(keyNormalizer);
+        this.openSnapshots = new TreeMap<>();
+        this.versionedUserIds = new HashSet<>();
+        this.userCount = new LongAdder();
+        if (undeleteWindow.isNegative()) {
+            throw new IllegalArgumentException("Invalid undelete window specified!");
+        }
+        this.undeleteWindow = undeleteWindow;
+        this.tombstones = new ArrayDeque<>();
+        this.queryPlanner = new UserQueryPlanner(new QueryIndexes());
     }
 
     @Override
-    public User add(User user) {
+    public synchronized User add(User user) {
         if (isNull(user)) {
             throw new IllegalArgumentException("Invalid user specified!");
         }
-        if (findByEmail(user.getEmail()).isPresent()) {
+        awaitIndexes();
+        if (isClaimed(userIdsByEmail, emailKey(user.getEmail()))) {
             throw new DuplicateUserException("User already exists!");
         }
-        if (findByUsername(user.getUsername()).isPresent()) {
+        if (isClaimed(userIdsByUsername, usernameKey(user.getUsername()))) {
             throw new DuplicateUserException("User already exists!");
         }
 
         Integer id = getNextId();
-        User newUser = new User(getNextId(), user.getUsername(), user.getEmail());
-        users.put(id, newUser);
+        User newUser = new User(id, user.getUsername(), user.getEmail());
+        store(newUser);
+        changeLog.append(UserChangeEvent.Type.ADDED, null, newUser);
 
         return newUser;
     }
 
     @Override
-    public User update(User user) {
+    public synchronized List<User> addAll(Collection<User> newUsers) {
+        if (isEmptyCollection(newUsers)) {
+            throw new IllegalArgumentException("Invalid collection of users!");
+        }
+        awaitIndexes();
+        Set<String> emails = new HashSet<>();
+        Set<String> usernames = new HashSet<>();
+        for (User user : newUsers) {
+            if (isNull(user)) {
+                throw new IllegalArgumentException("Invalid user specified!");
+            }
+            String email = emailKey(user.getEmail());
+            String username = usernameKey(user.getUsername());
+            if (isClaimed(userIdsByEmail, email) || !emails.add(email)) {
+                throw new DuplicateUserException("User already exists!");
+            }
+            if (isClaimed(userIdsByUsername, username) || !usernames.add(username)) {
+                throw new DuplicateUserException("User already exists!");
+            }
+        }
+
+        List<User> added = new ArrayList<>(newUsers.size());
+        for (User user : newUsers) {
+            User newUser = new User(getNextId(), user.getUsername(), user.getEmail());
+            store(newUser);
+            changeLog.append(UserChangeEvent.Type.ADDED, null, newUser);
+            added.add(newUser);
+        }
+        return added;
+    }
+
+    @Override
+    public synchronized User update(User user) {
         if (isNull(user)) {
             throw new IllegalArgumentException("Invalid user specified!");
         }
-        if (!users.containsKey(user.getUserId())) {
+        User previous = current(user.getUserId());
+        if (isNull(previous)) {
             throw new UserNotFoundException("User doesn't exist!");
         }
-        users.remove(user.getUserId());
-        users.put(user.getUserId(), user);
+        awaitIndexes();
+        User updated = sharingStrings(user, previous);
+        if (isClaimedByOther(userIdsByEmail, emailKey(updated.getEmail()), updated.getUserId())
+                || isClaimedByOther(userIdsByUsername, usernameKey(updated.getUsername()), updated.getUserId())) {
+            throw new DuplicateUserException("User already exists!");
+        }
+        reindex(previous, updated);
+        changeLog.append(UserChangeEvent.Type.UPDATED, previous, updated);
 
-        return user;
+        return updated;
     }
 
     @Override
     public Optional<User> findById(Integer userId) {
-        return Optional.ofNullable(users.get(userId));
+        return Optional.ofNullable(current(userId));
+    }
+
+    @Override
+    public User findByIdOrNull(int userId) {
+        UserVersion head = head(userId);
+        return isNull(head) ? null : head.user;
     }
 
     @Override
     public Optional<User> findByEmail(String email) {
-        return findOneBy(user -> user.getEmail().equals(email));
+        return Optional.ofNullable(findByEmailOrNull(email));
+    }
+
+    @Override
+    public User findByEmailOrNull(String email) {
+        awaitIndexes();
+        if (isNull(email)) {
+            return null;
+        }
+        String key = emailKey(email);
+        User user = current(userIdsByEmail.get(key));
+        return isNull(user) || !(user.getEmail().equals(email) || emailKey(user.getEmail()).equals(key)) ? null : user;
     }
 
     @Override
     public Optional<User> findByUsername(String username) {
-        return findOneBy(user -> user.getUsername().equals(username));
+        return Optional.ofNullable(findByUsernameOrNull(username));
+    }
+
+    @Override
+    public User findByUsernameOrNull(String username) {
+        awaitIndexes();
+        if (isNull(username)) {
+            return null;
+        }
+        String key = usernameKey(username);
+        User user = current(userIdsByUsername.get(key));
+        return isNull(user) || !(user.getUsername().equals(username) || usernameKey(user.getUsername()).equals(key))
+                ? null : user;
     }
 
     @Override
     public List<User> findAll() {
-        return List.copyOf(users.values());
+        return currentUsers().collect(toList());
+    }
+
+    @Override
+    public void forEach(Consumer<? super User> action) {
+        currentUsers().forEach(action);
     }
 
     @Override
@@ -76,7 +242,11 @@ public class UserRepositoryImpl implements UserRepository {
         if (isEmptyCollection(ids)) {
             return List.of();
         }
-        return findAllBy(user -> ids.contains(user.getUserId()));
+        return ids.stream()
+                .map(this::current)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(toList());
     }
 
     @Override
@@ -84,7 +254,11 @@ public class UserRepositoryImpl implements UserRepository {
         if (isEmptyCollection(emails)) {
             return List.of();
         }
-        return findAllBy(user -> emails.contains(user.getEmail()));
+        return emails.stream()
+                .map(this::findByEmailOrNull)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(toList());
     }
 
     @Override
@@ -92,51 +266,108 @@ public class UserRepositoryImpl implements UserRepository {
         if (isEmptyCollection(usernames)) {
             return List.of();
         }
-        return findAllBy(user -> usernames.contains(user.getUsername()));
+        return usernames.stream()
+                .map(this::findByUsernameOrNull)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(toList());
+    }
+
+    @Override
+    public List<User> findAllByEmailDomain(String domain, int page, int size) {
+        if (page < 0 || size <= 0) {
+            throw new IllegalArgumentException("Invalid page specified!");
+        }
+        awaitIndexes();
+        EmailDomainIds ids = userIdsByEmailDomain.get(normalizeEmailDomain(domain));
+        if (isNull(domain) || isEmptyCollection(ids)) {
+            return List.of();
+        }
+        return ids.stream()
+                .skip((long) page * size)
+                .limit(size)
+                .map(this::current)
+                .filter(Objects::nonNull)
+                .collect(toList());
+    }
+
+    @Override
+    public int countByEmailDomain(String domain) {
+        awaitIndexes();
+        EmailDomainIds ids = userIdsByEmailDomain.get(normalizeEmailDomain(domain));
+        return isNull(domain) || isNull(ids) ? 0 : ids.size();
+    }
+
+    @Override
+    public List<User> findByIdRange(int from, int to, int limit) {
+        return findInOrder(from, to, limit, false);
+    }
+
+    @Override
+    public List<User> findByIdRangeDescending(int from, int to, int limit) {
+        return findInOrder(from, to, limit, true);
+    }
+
+    @Override
+    public List<User> find(UserQuery query) {
+        if (isNull(query)) {
+            throw new IllegalArgumentException("Invalid query specified!");
+        }
+        awaitIndexes();
+        return queryPlanner.execute(query);
+    }
+
+    @Override
+    public QueryPlan explain(UserQuery query) {
+        if (isNull(query)) {
+            throw new IllegalArgumentException("Invalid query specified!");
+        }
+        awaitIndexes();
+        return queryPlanner.explain(query);
     }
 
     @Override
-    public void delete(User user) {
+    public synchronized void delete(User user) {
         if (isNull(user)) {
             throw new IllegalArgumentException("Invalid user specified!");
         }
-        if (users.containsKey(user.getUserId())) {
-            users.remove(user.getUserId());
+        if (!isNull(current(user.getUserId()))) {
+            removeAndPublish(user.getUserId());
             return;
         }
         Optional<User> found = findByUsername(user.getUsername());
         if (found.isPresent()) {
-            users.remove(found.get().getUserId());
+            removeAndPublish(found.get().getUserId());
             return;
         }
         found = findByEmail(user.getEmail());
         if (found.isPresent()) {
-            users.remove(found.get().getUserId());
+            removeAndPublish(found.get().getUserId());
             return;
         }
         throw new UserNotFoundException("No user found!");
     }
 
     @Override
-    public void deleteById(Integer userId) {
-        if (users.containsKey(userId)) {
-            users.remove(userId);
+    public synchronized void deleteById(Integer userId) {
+        if (!isNull(current(userId))) {
+            removeAndPublish(userId);
             return;
         }
         throw new UserNotFoundException("User to be deleted doesn't exist!");
     }
 
     @Override
-    public void deleteByEmail(String email) {
+    public synchronized void deleteByEmail(String email) {
         Optional<User> found = findByEmail(email);
         if (found.isEmpty()) {
             throw new UserNotFoundException("User to be deleted doesn't exist!");
         }
-        users.remove(found.get().getUserId());
+        removeAndPublish(found.get().getUserId());
     }
 
     @Override
-    public void deleteByUsername(String username) {
+    public synchronized void deleteByUsername(String username) {
         Optional<User> found = findByUsername(username);
         if (found.isEmpty()) {
             throw new UserNotFoundException("User doesn't exist!");
@@ -145,7 +376,7 @@ public class UserRepositoryImpl implements UserRepository {
     }
 
     @Override
-    public void deleteAllById(Collection<Integer> ids) {
+    public synchronized void deleteAllById(Collection<Integer> ids) {
         if (isEmptyCollection(ids)) {
             throw new IllegalArgumentException("Invalid collection of IDs!");
         }
@@ -153,7 +384,7 @@ public class UserRepositoryImpl implements UserRepository {
     }
 
     @Override
-    public void deleteAllByEmail(Collection<String> emails) {
+    public synchronized void deleteAllByEmail(Collection<String> emails) {
         if (isEmptyCollection(emails)) {
             throw new IllegalArgumentException("Invalid collection of emails!");
         }
@@ -161,7 +392,7 @@ public class UserRepositoryImpl implements UserRepository {
     }
 
     @Override
-    public void deleteAllByUsername(Collection<String> usernames) {
+    public synchronized void deleteAllByUsername(Collection<String> usernames) {
         if (isEmptyCollection(usernames)) {
             throw new IllegalArgumentException("Invalid collection of usernames!");
         }
@@ -170,33 +401,726 @@ public class UserRepositoryImpl implements UserRepository {
 
     @Override
     public int count() {
-        return users.size();
+        return userCount.intValue();
     }
 
-    private List<User> findAllBy(Predicate<User> predicate) {
-        return users.values()
-                .stream()
-                .filter(predicate)
+    @Override
+    public Flow.Publisher<UserChangeEvent> changes(long fromSequence) {
+        return changeLog.publisher(fromSequence);
+    }
+
+    @Override
+    public long lastSequence() {
+        return changeLog.lastSequence();
+    }
+
+    @Override
+    public synchronized UserSnapshot snapshot() {
+        openSnapshots.merge(version, 1, Integer::sum);
+        return new Snapshot(version, userCount.intValue());
+    }
+
+    /**
+     * Restores a user deleted less than the undelete window ago, with its ID, emitting an {@code ADDED} change.
+     *
+     * @throws UserNotFoundException  if no such user was deleted within the window
+     * @throws DuplicateUserException if its email or username has been taken since
+     */
+    public synchronized User undeleteById(Integer userId) {
+        UserVersion head = isNull(userId) ? null : head(userId);
+        if (isNull(head) || !isNull(head.user) || isNull(head.deleted)
+                || System.nanoTime() - head.deletedAt > undeleteWindow.toNanos()) {
+            throw new UserNotFoundException("No deleted user to restore!");
+        }
+        return restore(head.deleted);
+    }
+
+    /**
+     * Reclaims up to {@code maxTombstones} deleted users, oldest first, once their undelete window is over and no open
+     * snapshot can see them. Each delete already reclaims a few, so a backlog left by a long-lived snapshot or a long
+     * undelete window shrinks as deletes go on. When deletes are rare, a {@link TombstonePurger} is needed to reclaim
+     * that backlog in batches.
+     *
+     * @return the number of tombstones reclaimed
+     */
+    public synchronized int purgeTombstones(int maxTombstones) {
+        int purged = 0;
+        long now = System.nanoTime();
+        while (purged < maxTombstones && !tombstones.isEmpty()) {
+            Integer userId = tombstones.peekFirst();
+            UserVersion head = head(userId);
+            if (isNull(head) || !isNull(head.user)) {
+                tombstones.pollFirst();
+                continue;
+            }
+            if (now - head.deletedAt < undeleteWindow.toNanos() || !isNull(head.older)) {
+                break;
+            }
+            tombstones.pollFirst();
+            users.remove(userId, head);
+            mirror(userId, null);
+            userIdsByEmail.remove(emailKey(head.deleted.getEmail()), userId);
+            userIdsByUsername.remove(usernameKey(head.deleted.getUsername()), userId);
+            purged++;
+        }
+        return purged;
+    }
+
+    @Override
+    public synchronized User restore(User user) {
+        if (isNull(user) || isNull(user.getUserId())) {
+            throw new IllegalArgumentException("Invalid user specified!");
+        }
+        awaitIndexes();
+        if (!isNull(current(user.getUserId()))
+                || isClaimed(userIdsByEmail, emailKey(user.getEmail()))
+                || isClaimed(userIdsByUsername, usernameKey(user.getUsername()))) {
+            throw new DuplicateUserException("User already exists!");
+        }
+        store(user);
+        changeLog.append(UserChangeEvent.Type.ADDED, null, user);
+        return user;
+    }
+
+    /**
+     * Loads a pre-validated dataset into an empty repository without going through {@link #add(User)}: users keep
+     * their IDs, every index is built in parallel across cores, and no change events are published, so replicas
+     * must be bootstrapped from the same dataset. Duplicates are still detected, and leave the repository empty.
+     */
+    public BootstrapResult bootstrap(Collection<User> dataset) {
+        return bootstrap(dataset, false);
+    }
+
+    /**
+     * Like {@link #bootstrap(Collection)}, but returns as soon as {@link #findById(Integer)} can be served. The
+     * secondary indexes are built in the background, and lookups or writes that need them wait until they are ready.
+     */
+    public BootstrapResult bootstrapLazily(Collection<User> dataset) {
+        return bootstrap(dataset, true);
+    }
+
+    @Override
+    public RepositoryStats stats() {
+        long[] userBytes = {0};
+        users.values().forEach(head -> {
+            for (UserVersion node = head; !isNull(node); node = node.older) {
+                userBytes[0] += USER_VERSION_BYTES;
+                if (!isNull(node.user)) {
+                    userBytes[0] += USER_BYTES + stringBytes(node.user.getEmail()) + stringBytes(node.user.getUsername());
+                }
+            }
+        });
+        long domainBytes = 0;
+        for (Map.Entry<String, EmailDomainIds> domain : userIdsByEmailDomain.entrySet()) {
+            domainBytes += MAP_ENTRY_BYTES + stringBytes(domain.getKey()) + (long) domain.getValue().size() * SKIP_LIST_ENTRY_BYTES;
+        }
+        return new RepositoryStats(count(), List.of(
+                RepositoryStats.IndexStats.ofHashIndex("id", users.keySet(),
+                        (long) users.size() * (MAP_ENTRY_BYTES + INTEGER_BYTES) + userBytes[0]
+                                + (long) headsById.length() * REFERENCE_BYTES),
+                RepositoryStats.IndexStats.ofHashIndex("email", userIdsByEmail.keySet(),
+                        (long) userIdsByEmail.size() * MAP_ENTRY_BYTES),
+                RepositoryStats.IndexStats.ofHashIndex("username", userIdsByUsername.keySet(),
+                        (long) userIdsByUsername.size() * MAP_ENTRY_BYTES),
+                RepositoryStats.IndexStats.ofHashIndex("emailDomain", userIdsByEmailDomain.keySet(), domainBytes)));
+    }
+
+    private synchronized BootstrapResult bootstrap(Collection<User> dataset, boolean lazy) {
+        if (isNull(dataset)) {
+            throw new IllegalArgumentException("Invalid collection of users!");
+        }
+        if (!users.isEmpty()) {
+            throw new IllegalStateException("Repository must be empty to bootstrap!");
+        }
+        long start = System.nanoTime();
+        long loadedVersion = ++version;
+        dataset.stream()
+                .filter(user -> !isNull(user) && !isNull(user.getUserId()))
+                .mapToInt(User::getUserId)
+                .max()
+                .ifPresent(highestId -> growHeadsById(highestId, dataset.size()));
+        AtomicReferenceArray<UserVersion> heads = headsById;
+        try {
+            forEachInParallel(dataset, user -> {
+                if (isNull(user) || isNull(user.getUserId())) {
+                    throw new IllegalArgumentException("Invalid user specified!");
+                }
+                UserVersion head = new UserVersion(loadedVersion, user, null);
+                if (!isNull(users.putIfAbsent(user.getUserId(), head))) {
+                    throw new DuplicateUserException("User already exists!");
+                }
+                if (user.getUserId() >= 0 && user.getUserId() < heads.length()) {
+                    heads.set(user.getUserId(), head);
+                }
+                orderedUserIds.add(user.getUserId());
+            });
+        } catch (RuntimeException e) {
+            users.clear();
+            headsById = new AtomicReferenceArray<>(MIN_HEADS_BY_ID);
+            orderedUserIds.clear();
+            throw e;
+        }
+        maxUserId = orderedUserIds.isEmpty() ? 0 : orderedUserIds.last();
+        userCount.add(users.size());
+        Duration primaryIndexTime = Duration.ofNanos(System.nanoTime() - start);
+
+        if (!lazy) {
+            try {
+                indexAll(dataset);
+            } catch (RuntimeException e) {
+                clearBootstrapped();
+                throw e;
+            }
+            Duration timeToReady = Duration.ofNanos(System.nanoTime() - start);
+            return new BootstrapResult(users.size(), primaryIndexTime, CompletableFuture.completedFuture(timeToReady));
+        }
+        indexesReady = false;
+        secondaryIndexes = CompletableFuture.runAsync(() -> indexAll(dataset));
+        // not what awaitIndexes() joins, since a writer waiting there holds the lock the clean-up needs
+        CompletableFuture<Void> settled = secondaryIndexes.whenComplete((ignored, failure) -> {
+            if (!isNull(failure)) {
+                synchronized (this) {
+                    clearBootstrapped();
+                }
+            }
+            indexesReady = true;
+        });
+        return new BootstrapResult(users.size(), primaryIndexTime,
+                settled.thenApply(ignored -> Duration.ofNanos(System.nanoTime() - start)));
+    }
+
+    private void indexAll(Collection<User> dataset) {
+        forEachInParallel(dataset, user -> {
+            if (!isNull(userIdsByEmail.putIfAbsent(emailKey(user.getEmail()), user.getUserId()))
+                    || !isNull(userIdsByUsername.putIfAbsent(usernameKey(user.getUsername()), user.getUserId()))) {
+                throw new DuplicateUserException("User already exists!");
+            }
+            String domain = emailDomainOf(user.getEmail());
+            userIdsByEmailDomain.computeIfAbsent(domain, key -> new EmailDomainIds())
+                    .add(user.getUserId());
+        });
+    }
+
+    /**
+     * Runs the action for each user across cores, but unlike a throwing {@code parallelStream().forEach} only
+     * rethrows the first failure once every task is done, so that the caller can clean up safely.
+     */
+    private static void forEachInParallel(Collection<User> dataset, Consumer<User> action) {
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        dataset.parallelStream().forEach(user -> {
+            if (!isNull(failure.get())) {
+                return;
+            }
+            try {
+                action.accept(user);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        if (!isNull(failure.get())) {
+            throw failure.get();
+        }
+    }
+
+    private void clearBootstrapped() {
+        users.clear();
+        headsById = new AtomicReferenceArray<>(MIN_HEADS_BY_ID);
+        orderedUserIds.clear();
+        userIdsByEmail.clear();
+        userIdsByUsername.clear();
+        userIdsByEmailDomain.clear();
+        userCount.reset();
+        maxUserId = 0;
+    }
+
+    /**
+     * Waits for the secondary indexes of a lazy bootstrap. Costs a single volatile read once they are ready.
+     */
+    private void awaitIndexes() {
+        if (indexesReady) {
+            return;
+        }
+        try {
+            secondaryIndexes.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Bootstrap failed, indexes are incomplete!", e.getCause());
+        }
+    }
+
+    private List<User> findInOrder(int from, int to, int limit, boolean descending) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid page specified!");
+        }
+        if (from > to) {
+            return List.of();
+        }
+        NavigableSet<Integer> ids = orderedUserIds.subSet(from, true, to, true);
+        return (descending ? ids.descendingSet() : ids).stream()
+                .map(this::current)
+                .filter(Objects::nonNull)
+                .limit(limit)
                 .collect(toList());
     }
 
-    private Optional<User> findOneBy(Predicate<User> predicate) {
+    private User current(Integer userId) {
+        if (isNull(userId)) {
+            return null;
+        }
+        UserVersion head = head(userId);
+        return isNull(head) ? null : head.user;
+    }
+
+    private UserVersion head(int userId) {
+        AtomicReferenceArray<UserVersion> heads = headsById;
+        return userId >= 0 && userId < heads.length() ? heads.get(userId) : users.get(userId);
+    }
+
+    private Stream<User> currentUsers() {
         return users.values()
                 .stream()
-                .filter(predicate)
-                .findFirst();
+                .map(head -> head.user)
+                .filter(Objects::nonNull);
+    }
+
+    private void store(User user) {
+        writeVersion(user.getUserId(), user);
+        orderedUserIds.add(user.getUserId());
+        index(user);
+        maxUserId = Math.max(maxUserId, user.getUserId());
+        userCount.increment();
+    }
+
+    private User remove(Integer userId) {
+        User removed = current(userId);
+        if (isNull(removed)) {
+            return null;
+        }
+        awaitIndexes();
+        push(userId, UserVersion.tombstone(++version, removed, head(userId)));
+        orderedUserIds.remove(userId);
+        unindexEmailDomain(removed);
+        userCount.decrement();
+        tombstones.addLast(userId);
+        purgeTombstones(TOMBSTONES_PURGED_PER_DELETE);
+        return removed;
+    }
+
+    private void index(User user) {
+        userIdsByEmail.put(emailKey(user.getEmail()), user.getUserId());
+        userIdsByUsername.put(usernameKey(user.getUsername()), user.getUserId());
+        String domain = emailDomainOf(user.getEmail());
+        userIdsByEmailDomain.computeIfAbsent(domain, key -> new EmailDomainIds())
+                .add(user.getUserId());
+    }
+
+    /**
+     * Moves the user's index entries in three steps, each a single atomic map operation: claim the new keys, publish
+     * the new version, release the old keys. Lookups check that the user they resolve still has the key they were
+     * asked for, so until the version is published only the old keys hit, and afterwards only the new ones.
+     */
+    private void reindex(User previous, User updated) {
+        Integer userId = updated.getUserId();
+        String previousEmail = emailKey(previous.getEmail());
+        String email = emailKey(updated.getEmail());
+        String previousUsername = usernameKey(previous.getUsername());
+        String username = usernameKey(updated.getUsername());
+        String previousDomain = emailDomainOf(previous.getEmail());
+        String domain = emailDomainOf(updated.getEmail());
+
+        userIdsByEmail.put(email, userId);
+        userIdsByUsername.put(username, userId);
+        userIdsByEmailDomain.computeIfAbsent(domain, key -> new EmailDomainIds()).add(userId);
+
+        writeVersion(userId, updated);
+
+        if (!email.equals(previousEmail)) {
+            userIdsByEmail.remove(previousEmail, userId);
+        }
+        if (!username.equals(previousUsername)) {
+            userIdsByUsername.remove(previousUsername, userId);
+        }
+        if (!domain.equals(previousDomain)) {
+            EmailDomainIds ids = userIdsByEmailDomain.get(previousDomain);
+            if (!isNull(ids) && ids.remove(userId) && ids.isEmpty()) {
+                userIdsByEmailDomain.remove(previousDomain);
+            }
+        }
+    }
+
+    /**
+     * Whether a live user owns the key. Deleted users keep their keys until purged, but anyone can claim them.
+     */
+    private boolean isClaimed(Map<String, Integer> index, String key) {
+        return !isNull(current(index.get(key)));
+    }
+
+    private boolean isClaimedByOther(Map<String, Integer> index, String key, Integer userId) {
+        Integer owner = index.get(key);
+        return !isNull(owner) && !owner.equals(userId) && !isNull(current(owner));
+    }
+
+    /**
+     * Reuses the previous version's strings for unchanged fields, so that retained versions don't hold equal copies.
+     */
+    private User sharingStrings(User user, User previous) {
+        boolean sameUsername = previous.getUsername().equals(user.getUsername());
+        boolean sameEmail = previous.getEmail().equals(user.getEmail());
+        if ((!sameUsername || previous.getUsername() == user.getUsername())
+                && (!sameEmail || previous.getEmail() == user.getEmail())) {
+            return user;
+        }
+        return new User(user.getUserId(),
+                sameUsername ? previous.getUsername() : user.getUsername(),
+                sameEmail ? previous.getEmail() : user.getEmail());
+    }
+
+    private void unindexEmailDomain(User user) {
+        String domain = emailDomainOf(user.getEmail());
+        EmailDomainIds ids = userIdsByEmailDomain.get(domain);
+        if (!isNull(ids) && ids.remove(user.getUserId()) && ids.isEmpty()) {
+            userIdsByEmailDomain.remove(domain);
+        }
+    }
+
+    private void removeAndPublish(Integer userId) {
+        User removed = remove(userId);
+        changeLog.append(UserChangeEvent.Type.DELETED, removed, null);
+    }
+
+    private void writeVersion(Integer userId, User user) {
+        push(userId, new UserVersion(++version, user, head(userId)));
+    }
+
+    /**
+     * Makes {@code head} the user's current version, keeping the older versions open snapshots still see.
+     */
+    private void push(Integer userId, UserVersion head) {
+        users.put(userId, head);
+        mirror(userId, head);
+        if (!isNull(head.older)) {
+            versionedUserIds.add(userId);
+            trim(userId, head);
+        }
+    }
+
+    private void trim(Integer userId, UserVersion head) {
+        if (openSnapshots.isEmpty()) {
+            head.older = null;
+        } else {
+            long oldestVisible = openSnapshots.firstKey();
+            for (UserVersion node = head; node != null; node = node.older) {
+                if (node.version <= oldestVisible) {
+                    node.older = null;
+                    break;
+                }
+            }
+        }
+        if (isNull(head.older)) {
+            versionedUserIds.remove(userId);
+        }
+    }
+
+    /**
+     * Sets the user's slot in {@code headsById}, first growing it to cover {@code userId} if IDs are still dense.
+     */
+    private void mirror(int userId, UserVersion head) {
+        AtomicReferenceArray<UserVersion> heads = headsById;
+        if (userId >= heads.length() && !isNull(head)) {
+            heads = growHeadsById(userId, users.size());
+        }
+        if (userId >= 0 && userId < heads.length()) {
+            heads.set(userId, head);
+        }
+    }
+
+    /**
+     * Rebuilds {@code headsById} from {@code users} with room for {@code userId}, unless that would take more than two
+     * slots per expected user. Writers must not run concurrently.
+     */
+    private AtomicReferenceArray<UserVersion> growHeadsById(int userId, int expectedUsers) {
+        long length = headsById.length();
+        while (length <= userId) {
+            length <<= 1;
+        }
+        if (length > Math.max(MIN_HEADS_BY_ID, 2L * expectedUsers)) {
+            return headsById;
+        }
+        AtomicReferenceArray<UserVersion> heads = new AtomicReferenceArray<>((int) length);
+        users.forEach((id, head) -> {
+            if (id >= 0 && id < heads.length()) {
+                heads.set(id, head);
+            }
+        });
+        headsById = heads;
+        return heads;
+    }
+
+    private synchronized void release(long snapshotVersion) {
+        openSnapshots.computeIfPresent(snapshotVersion, (key, count) -> count == 1 ? null : count - 1);
+        for (Integer userId : List.copyOf(versionedUserIds)) {
+            trim(userId, head(userId));
+        }
+    }
+
+    private String emailKey(String email) {
+        return keyNormalizer.normalizeEmail(email);
+    }
+
+    private String usernameKey(String username) {
+        return keyNormalizer.normalizeUsername(username);
     }
 
     private Integer getNextId() {
-        return 1 + users.values().stream()
-                .map(User::getUserId)
-                .max(Integer::compare)
-                .orElse(0);
+        return maxUserId + 1;
+    }
+
+    private static String emailDomainOf(String email) {
+        int at = email.lastIndexOf('@');
+        return at < 0 ? "" : normalizeEmailDomain(email.substring(at + 1));
+    }
+
+    private static String normalizeEmailDomain(String domain) {
+        if (isNull(domain)) {
+            return "";
+        }
+        String trimmed = domain.trim();
+        if (trimmed.startsWith("@")) {
+            trimmed = trimmed.substring(1);
+        }
+        return trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Approximate heap footprint of one live user across the primary and secondary indexes, consistent with
+     * {@link #stats()}.
+     */
+    static long estimatedBytes(User user) {
+        if (isNull(user)) {
+            return 0;
+        }
+        return MAP_ENTRY_BYTES + INTEGER_BYTES + USER_VERSION_BYTES + USER_BYTES
+                + stringBytes(user.getEmail()) + stringBytes(user.getUsername())
+                + 2 * MAP_ENTRY_BYTES + 2 * SKIP_LIST_ENTRY_BYTES;
+    }
+
+    private static long stringBytes(String value) {
+        return isNull(value) ? 0 : STRING_BYTES + value.length();
     }
 
     private <T> boolean isEmptyCollection(Collection<T> elements) {
         return isNull(elements) || elements.isEmpty();
     }
+
+    /**
+     * IDs of the users of one email domain, in ID order. Keeps its own count, since the skip list's is linear.
+     */
+    private static final class EmailDomainIds extends AbstractSet<Integer> {
+
+        private final NavigableSet<Integer> ids = new ConcurrentSkipListSet<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        @Override
+        public boolean add(Integer userId) {
+            if (ids.add(userId)) {
+                size.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean remove(Object userId) {
+            if (ids.remove(userId)) {
+                size.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return ids.iterator();
+        }
+
+        @Override
+        public Spliterator<Integer> spliterator() {
+            return ids.spliterator();
+        }
+
+        @Override
+        public int size() {
+            return size.get();
+        }
+    }
+
+    /**
+     * One version of a user, newest first. {@code older} is only cut by writers, once no snapshot can reach it.
+     * A tombstone has no {@code user} but remembers the {@code deleted} one until it is purged.
+     */
+    private static final class UserVersion {
+
+        private final long version;
+        private final User user;
+        private final User deleted;
+        private final long deletedAt;
+        private volatile UserVersion older;
+
+        private UserVersion(long version, User user, UserVersion older) {
+            this(version, user, older, null, 0);
+        }
+
+        private UserVersion(long version, User user, UserVersion older, User deleted, long deletedAt) {
+            this.version = version;
+            this.user = user;
+            this.older = older;
+            this.deleted = deleted;
+            this.deletedAt = deletedAt;
+        }
+
+        private static UserVersion tombstone(long version, User deleted, UserVersion older) {
+            return new UserVersion(version, null, older, deleted, System.nanoTime());
+        }
+
+        private User visibleAt(long snapshotVersion) {
+            UserVersion node = this;
+            while (!isNull(node) && node.version > snapshotVersion) {
+                node = node.older;
+            }
+            return isNull(node) ? null : node.user;
+        }
+    }
+
+    private final class QueryIndexes implements UserQueryPlanner.Indexes {
+
+        @Override
+        public int count() {
+            return UserRepositoryImpl.this.count();
+        }
+
+        @Override
+        public Stream<User> users() {
+            return currentUsers();
+        }
+
+        @Override
+        public User findById(Integer userId) {
+            return current(userId);
+        }
+
+        @Override
+        public User findByEmail(String email) {
+            return findByEmailOrNull(email);
+        }
+
+        @Override
+        public User findByUsername(String username) {
+            return findByUsernameOrNull(username);
+        }
+
+        @Override
+        public Collection<Integer> idsInRange(int from, int to) {
+            return orderedUserIds.subSet(from, true, to, true);
+        }
+
+        @Override
+        public Collection<Integer> idsByEmailDomain(String domain) {
+            EmailDomainIds ids = userIdsByEmailDomain.get(normalizeEmailDomain(domain));
+            return isNull(ids) ? List.of() : ids;
+        }
+
+        @Override
+        public boolean emailEquals(User user, String email) {
+            return user.getEmail().equals(email) || emailKey(user.getEmail()).equals(emailKey(email));
+        }
+
+        @Override
+        public boolean usernameEquals(User user, String username) {
+            return user.getUsername().equals(username) || usernameKey(user.getUsername()).equals(usernameKey(username));
+        }
+
+        @Override
+        public boolean inEmailDomain(User user, String domain) {
+            return emailDomainOf(user.getEmail()).equals(normalizeEmailDomain(domain));
+        }
+    }
+
+    private final class Snapshot implements UserSnapshot {
+
+        private final long version;
+        private final int count;
+        private volatile boolean closed;
+
+        private Snapshot(long version, int count) {
+            this.version = version;
+            this.count = count;
+        }
+
+        @Override
+        public long version() {
+            return version;
+        }
+
+        @Override
+        public Optional<User> findById(Integer userId) {
+            if (isNull(userId)) {
+                return Optional.empty();
+            }
+            UserVersion head = head(userId);
+            return isNull(head) ? Optional.empty() : Optional.ofNullable(head.visibleAt(version));
+        }
+
+        @Override
+        public Optional<User> findByEmail(String email) {
+            String key = emailKey(email);
+            return visibleUsers().filter(user -> emailKey(user.getEmail()).equals(key)).findFirst();
+        }
+
+        @Override
+        public Optional<User> findByUsername(String username) {
+            String key = usernameKey(username);
+            return visibleUsers().filter(user -> usernameKey(user.getUsername()).equals(key)).findFirst();
+        }
+
+        @Override
+        public List<User> findAll() {
+            return visibleUsers().collect(toList());
+        }
+
+        @Override
+        public void forEach(Consumer<? super User> action) {
+            visibleUsers().forEach(action);
+        }
+
+        @Override
+        public Iterator<User> iterator() {
+            return visibleUsers().iterator();
+        }
+
+        @Override
+        public int count() {
+            return count;
+        }
+
+        @Override
+        public void close() {
+            synchronized (UserRepositoryImpl.this) {
+                if (!closed) {
+                    closed = true;
+                    release(version);
+                }
+            }
+        }
+
+        private Stream<User> visibleUsers() {
+            if (closed) {
+                throw new IllegalStateException("Snapshot already closed!");
+            }
+            return users.values()
+                    .stream()
+                    .map(head -> head.visibleAt(version))
+                    .filter(Objects::nonNull);
+        }
+    }
 }
 
 /*=============================================================================
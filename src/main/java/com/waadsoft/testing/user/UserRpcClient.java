@@ -0,0 +1,331 @@
+package com.waadsoft.testing.user;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * {@link UserService} backed by a remote {@link UserRpcServer}, usable wherever a local service is.
+ * <p>
+ * All the calls share one connection. Each caller sends its request without waiting for the ones in flight, and a
+ * reader thread hands every response to its caller by request ID. Requests queued by concurrent callers are written
+ * together by whichever of them holds the socket. The batch methods, such as {@link #getUsersById(Collection)},
+ * travel as a single frame.
+ */
+public class UserRpcClient implements UserService, AutoCloseable {
+
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final int MAX_REQUESTS_PER_WRITE = 64;
+    private static final AtomicInteger CLIENTS = new AtomicInteger();
+
+    private final SocketChannel channel;
+    private final long timeoutNanos;
+    private final AtomicInteger requestIds = new AtomicInteger();
+    private final ConcurrentMap<Integer, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    private final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Thread reader;
+    private volatile UserRpcException failure;
+
+    private UserRpcClient(SocketChannel channel, Duration timeout) {
+        this.channel = channel;
+        this.timeoutNanos = timeout.toNanos();
+        this.reader = new Thread(this::receive, "user-rpc-client-" + CLIENTS.incrementAndGet());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public static UserRpcClient connect(InetSocketAddress address) {
+        return connect(address, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param timeout how long a call waits for its response before failing with a {@link UserRpcException}
+     */
+    public static UserRpcClient connect(InetSocketAddress address, Duration timeout) {
+        requireNonNull(address);
+        if (timeout.isZero() || timeout.isNegative()) {
+            throw new IllegalArgumentException("Invalid timeout specified!");
+        }
+        try {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.socket().setTcpNoDelay(true);
+            return new UserRpcClient(channel, timeout);
+        } catch (IOException e) {
+            throw new UserRpcException("Can't connect to " + address + "!", e);
+        }
+    }
+
+    /**
+     * Closes the connection. Calls still in flight fail with a {@link UserRpcException}.
+     */
+    @Override
+    public void close() {
+        fail(new UserRpcException("Client closed!"));
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                     S E R V I C E                       |
+    ==========================================================*/
+    @Override
+    public User addUser(User user) {
+        return call(UserRpcProtocol.Method.ADD_USER, arguments -> arguments.putUser(user),
+                UserRpcProtocol.Decoder::getUser);
+    }
+
+    @Override
+    public User updateUser(User user) {
+        return call(UserRpcProtocol.Method.UPDATE_USER, arguments -> arguments.putUser(user),
+                UserRpcProtocol.Decoder::getUser);
+    }
+
+    @Override
+    public Optional<User> getUserById(Integer userId) {
+        return call(UserRpcProtocol.Method.GET_USER_BY_ID, arguments -> arguments.putInteger(userId),
+                UserRpcProtocol.Decoder::getOptionalUser);
+    }
+
+    @Override
+    public Optional<User> getUserByEmail(String email) {
+        return call(UserRpcProtocol.Method.GET_USER_BY_EMAIL, arguments -> arguments.putString(email),
+                UserRpcProtocol.Decoder::getOptionalUser);
+    }
+
+    @Override
+    public Optional<User> getUserByUsername(String username) {
+        return call(UserRpcProtocol.Method.GET_USER_BY_USERNAME, arguments -> arguments.putString(username),
+                UserRpcProtocol.Decoder::getOptionalUser);
+    }
+
+    @Override
+    public List<User> getUsers() {
+        return call(UserRpcProtocol.Method.GET_USERS, arguments -> {
+        }, UserRpcProtocol.Decoder::getUsers);
+    }
+
+    @Override
+    public List<User> getUsersById(Collection<Integer> ids) {
+        return call(UserRpcProtocol.Method.GET_USERS_BY_ID, arguments -> arguments.putIntegers(ids),
+                UserRpcProtocol.Decoder::getUsers);
+    }
+
+    @Override
+    public List<User> getUsersByEmail(Collection<String> emails) {
+        return call(UserRpcProtocol.Method.GET_USERS_BY_EMAIL, arguments -> arguments.putStrings(emails),
+                UserRpcProtocol.Decoder::getUsers);
+    }
+
+    @Override
+    public List<User> getUsersByUsername(Collection<String> usernames) {
+        return call(UserRpcProtocol.Method.GET_USERS_BY_USERNAME, arguments -> arguments.putStrings(usernames),
+                UserRpcProtocol.Decoder::getUsers);
+    }
+
+    @Override
+    public void deleteUser(User user) {
+        call(UserRpcProtocol.Method.DELETE_USER, arguments -> arguments.putUser(user), result -> null);
+    }
+
+    @Override
+    public void deleteUserById(Integer userId) {
+        call(UserRpcProtocol.Method.DELETE_USER_BY_ID, arguments -> arguments.putInteger(userId), result -> null);
+    }
+
+    @Override
+    public void deleteUserByEmail(String email) {
+        call(UserRpcProtocol.Method.DELETE_USER_BY_EMAIL, arguments -> arguments.putString(email), result -> null);
+    }
+
+    @Override
+    public void deleteUserByUsername(String username) {
+        call(UserRpcProtocol.Method.DELETE_USER_BY_USERNAME, arguments -> arguments.putString(username),
+                result -> null);
+    }
+
+    @Override
+    public void deleteUsersByEmail(Collection<String> emails) {
+        call(UserRpcProtocol.Method.DELETE_USERS_BY_EMAIL, arguments -> arguments.putStrings(emails), result -> null);
+    }
+
+    @Override
+    public void deleteUsersById(Collection<Integer> ids) {
+        call(UserRpcProtocol.Method.DELETE_USERS_BY_ID, arguments -> arguments.putIntegers(ids), result -> null);
+    }
+
+    @Override
+    public void deleteUsersByUsername(Collection<String> usernames) {
+        call(UserRpcProtocol.Method.DELETE_USERS_BY_USERNAME, arguments -> arguments.putStrings(usernames),
+                result -> null);
+    }
+
+    @Override
+    public int countUsers() {
+        return call(UserRpcProtocol.Method.COUNT_USERS, arguments -> {
+        }, UserRpcProtocol.Decoder::getInteger);
+    }
+
+    /*---------------------------------------------------------
+    |                    T R A N S P O R T                    |
+    ==========================================================*/
+    private <T> T call(UserRpcProtocol.Method method, Consumer<UserRpcProtocol.Encoder> arguments,
+                       Function<UserRpcProtocol.Decoder, T> result) {
+        int requestId = requestIds.incrementAndGet();
+        UserRpcProtocol.Encoder request = new UserRpcProtocol.Encoder(requestId, (byte) method.ordinal());
+        arguments.accept(request);
+        ByteBuffer frame = request.toFrame();
+        CompletableFuture<ByteBuffer> response = new CompletableFuture<>();
+        pending.put(requestId, response);
+        if (!isNull(failure)) {
+            pending.remove(requestId);
+            throw failure;
+        }
+        send(frame);
+        ByteBuffer responseFrame = await(requestId, response);
+        byte status = responseFrame.get();
+        UserRpcProtocol.Decoder decoder = new UserRpcProtocol.Decoder(responseFrame);
+        if (status == UserRpcProtocol.ERROR) {
+            throw decoder.getError();
+        }
+        return result.apply(decoder);
+    }
+
+    /**
+     * Queues the frame, then writes every queued frame unless another caller is already writing, in which case that
+     * caller picks this one up before releasing the socket.
+     */
+    private void send(ByteBuffer frame) {
+        outbox.add(frame);
+        while (!outbox.isEmpty() && writeLock.tryLock()) {
+            try {
+                ByteBuffer[] batch = new ByteBuffer[MAX_REQUESTS_PER_WRITE];
+                int size;
+                while ((size = drainOutbox(batch)) > 0) {
+                    long remaining = 0;
+                    for (int index = 0; index < size; index++) {
+                        remaining += batch[index].remaining();
+                    }
+                    while (remaining > 0) {
+                        remaining -= channel.write(batch, 0, size);
+                    }
+                }
+            } catch (IOException e) {
+                fail(new UserRpcException("Connection to user server lost!", e));
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    private int drainOutbox(ByteBuffer[] batch) {
+        int size = 0;
+        for (ByteBuffer frame = outbox.poll(); frame != null; frame = size < batch.length ? outbox.poll() : null) {
+            batch[size++] = frame;
+        }
+        return size;
+    }
+
+    private ByteBuffer await(int requestId, CompletableFuture<ByteBuffer> response) {
+        try {
+            return response.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new UserRpcException("Call " + requestId + " timed out!", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UserRpcException("Interrupted while waiting for call " + requestId + "!", e);
+        } catch (ExecutionException e) {
+            throw (UserRpcException) e.getCause();
+        } finally {
+            pending.remove(requestId);
+        }
+    }
+
+    private void receive() {
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        try {
+            while (isNull(failure)) {
+                readFully(header.clear());
+                int length = header.getInt(0);
+                if (length < Integer.BYTES + 1 || length > UserRpcProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                ByteBuffer frame = ByteBuffer.allocate(length);
+                readFully(frame);
+                frame.flip();
+                CompletableFuture<ByteBuffer> response = pending.remove(frame.getInt());
+                if (!isNull(response)) {
+                    response.complete(frame);
+                }
+            }
+        } catch (IOException e) {
+            fail(new UserRpcException("Connection to user server lost!", e));
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed by the server");
+            }
+        }
+    }
+
+    private void fail(UserRpcException cause) {
+        synchronized (this) {
+            if (!isNull(failure)) {
+                return;
+            }
+            failure = cause;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // the connection is unusable either way
+        }
+        pending.values().forEach(response -> response.completeExceptionally(cause));
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,38 @@
+package com.waadsoft.testing.user;
+
+/**
+ * Thrown by {@link UserRpcClient} when a call can't complete: the connection failed, the call timed out, or the
+ * server failed in a way that has no matching local exception.
+ */
+public class UserRpcException extends RuntimeException {
+
+    public UserRpcException(String message) {
+        super(message);
+    }
+
+    public UserRpcException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public UserRpcException(Throwable cause) {
+        super(cause);
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
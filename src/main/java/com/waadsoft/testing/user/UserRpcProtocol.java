@@ -0,0 +1,342 @@
+package com.waadsoft.testing.user;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.isNull;
+
+/**
+ * Wire format shared by {@link UserRpcServer} and {@link UserRpcClient}. Every message is a frame:
+ * <pre>
+ *   request:  length:i32 | requestId:i32 | method:u8 | arguments
+ *   response: length:i32 | requestId:i32 | status:u8 | result or error
+ * </pre>
+ * {@code length} counts the bytes after itself. The request ID lets many calls share a connection and complete in
+ * any order. Integers and sizes are varints, shifted by one so that {@code 0} stands for {@code null}; strings are
+ * UTF-8 prefixed with their length, and collections with their size.
+ */
+final class UserRpcProtocol {
+
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private static final int INITIAL_FRAME_CAPACITY = 128;
+
+    /**
+     * One code per {@link UserService} method. New methods go last, so the ordinals stay stable.
+     */
+    enum Method {
+        ADD_USER, UPDATE_USER, GET_USER_BY_ID, GET_USER_BY_EMAIL, GET_USER_BY_USERNAME, GET_USERS,
+        GET_USERS_BY_ID, GET_USERS_BY_EMAIL, GET_USERS_BY_USERNAME, DELETE_USER, DELETE_USER_BY_ID,
+        DELETE_USER_BY_EMAIL, DELETE_USER_BY_USERNAME, DELETE_USERS_BY_EMAIL, DELETE_USERS_BY_ID,
+        DELETE_USERS_BY_USERNAME, COUNT_USERS;
+
+        private static final Method[] VALUES = values();
+
+        static Method of(byte code) {
+            if (code < 0 || code >= VALUES.length) {
+                throw new IllegalArgumentException("Unknown method: " + code);
+            }
+            return VALUES[code];
+        }
+    }
+
+    /**
+     * Errors that are rethrown as themselves on the client. Anything else becomes a {@link UserRpcException}.
+     */
+    private enum RemoteError {
+        OTHER, ILLEGAL_ARGUMENT, ILLEGAL_STATE, UNSUPPORTED_OPERATION, USER_NOT_FOUND, DUPLICATE_USER,
+        SERVICE_OVERLOADED, QUOTA_EXCEEDED, REPLICA_STALE;
+
+        static RemoteError of(RuntimeException e) {
+            if (e instanceof UserNotFoundException) {
+                return USER_NOT_FOUND;
+            } else if (e instanceof DuplicateUserException) {
+                return DUPLICATE_USER;
+            } else if (e instanceof ServiceOverloadedException) {
+                return SERVICE_OVERLOADED;
+            } else if (e instanceof QuotaExceededException) {
+                return QUOTA_EXCEEDED;
+            } else if (e instanceof ReplicaStaleException) {
+                return REPLICA_STALE;
+            } else if (e instanceof UnsupportedOperationException) {
+                return UNSUPPORTED_OPERATION;
+            } else if (e instanceof IllegalArgumentException) {
+                return ILLEGAL_ARGUMENT;
+            } else if (e instanceof IllegalStateException) {
+                return ILLEGAL_STATE;
+            }
+            return OTHER;
+        }
+
+        RuntimeException toException(String message) {
+            switch (this) {
+                case ILLEGAL_ARGUMENT:
+                    return new IllegalArgumentException(message);
+                case ILLEGAL_STATE:
+                    return new IllegalStateException(message);
+                case UNSUPPORTED_OPERATION:
+                    return new UnsupportedOperationException(message);
+                case USER_NOT_FOUND:
+                    return new UserNotFoundException(message);
+                case DUPLICATE_USER:
+                    return new DuplicateUserException(message);
+                case SERVICE_OVERLOADED:
+                    return new ServiceOverloadedException(message);
+                case QUOTA_EXCEEDED:
+                    return new QuotaExceededException(message);
+                case REPLICA_STALE:
+                    return new ReplicaStaleException(message);
+                default:
+                    return new UserRpcException("Remote call failed: " + message);
+            }
+        }
+    }
+
+    private UserRpcProtocol() {
+    }
+
+    /*---------------------------------------------------------
+    |                    E N C O D I N G                      |
+    ==========================================================*/
+    static final class Encoder {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_FRAME_CAPACITY);
+
+        Encoder(int requestId, byte code) {
+            buffer.putInt(0).putInt(requestId).put(code);
+        }
+
+        Encoder putInteger(Integer value) {
+            return putVarint(isNull(value) ? 0 : (((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL) + 1);
+        }
+
+        Encoder putString(String value) {
+            if (isNull(value)) {
+                return putVarint(0);
+            }
+            byte[] bytes = value.getBytes(UTF_8);
+            putVarint(bytes.length + 1L);
+            ensureRemaining(bytes.length);
+            buffer.put(bytes);
+            return this;
+        }
+
+        Encoder putUser(User user) {
+            ensureRemaining(1);
+            if (isNull(user)) {
+                buffer.put((byte) 0);
+                return this;
+            }
+            buffer.put((byte) 1);
+            return putInteger(user.getUserId()).putString(user.getUsername()).putString(user.getEmail());
+        }
+
+        Encoder putUsers(Collection<User> users) {
+            if (putSize(users)) {
+                users.forEach(this::putUser);
+            }
+            return this;
+        }
+
+        Encoder putIntegers(Collection<Integer> values) {
+            if (putSize(values)) {
+                values.forEach(this::putInteger);
+            }
+            return this;
+        }
+
+        Encoder putStrings(Collection<String> values) {
+            if (putSize(values)) {
+                values.forEach(this::putString);
+            }
+            return this;
+        }
+
+        Encoder putError(RuntimeException e) {
+            ensureRemaining(1);
+            buffer.put((byte) RemoteError.of(e).ordinal());
+            return putString(e.getMessage());
+        }
+
+        /**
+         * @return the frame, ready to be written
+         * @throws UserRpcException if the frame is larger than {@link #MAX_FRAME_LENGTH}
+         */
+        ByteBuffer toFrame() {
+            int length = buffer.position() - Integer.BYTES;
+            if (length > MAX_FRAME_LENGTH) {
+                throw new UserRpcException("Frame too large: " + length + " bytes!");
+            }
+            buffer.putInt(0, length);
+            return buffer.flip();
+        }
+
+        private boolean putSize(Collection<?> values) {
+            putVarint(isNull(values) ? 0 : values.size() + 1L);
+            return !isNull(values);
+        }
+
+        private Encoder putVarint(long value) {
+            ensureRemaining(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+            return this;
+        }
+
+        private void ensureRemaining(int length) {
+            if (buffer.remaining() < length) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+                buffer.flip();
+                buffer = grown.put(buffer);
+            }
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                    D E C O D I N G                      |
+    ==========================================================*/
+    static final class Decoder {
+
+        private final ByteBuffer buffer;
+
+        /**
+         * @param buffer the frame content after the status or method byte
+         */
+        Decoder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        Integer getInteger() {
+            long encoded = getVarint();
+            if (encoded == 0) {
+                return null;
+            }
+            int zigzag = (int) (encoded - 1);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        String getString() {
+            long encoded = getVarint();
+            if (encoded == 0) {
+                return null;
+            }
+            int length = checkLength(encoded - 1);
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+
+        User getUser() {
+            if (buffer.get() == 0) {
+                return null;
+            }
+            Integer userId = getInteger();
+            String username = getString();
+            String email = getString();
+            return new User(userId, username, email);
+        }
+
+        Optional<User> getOptionalUser() {
+            return Optional.ofNullable(getUser());
+        }
+
+        List<User> getUsers() {
+            int size = getSize();
+            if (size < 0) {
+                return null;
+            }
+            List<User> users = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                users.add(getUser());
+            }
+            return users;
+        }
+
+        List<Integer> getIntegers() {
+            int size = getSize();
+            if (size < 0) {
+                return null;
+            }
+            List<Integer> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(getInteger());
+            }
+            return values;
+        }
+
+        List<String> getStrings() {
+            int size = getSize();
+            if (size < 0) {
+                return null;
+            }
+            List<String> values = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                values.add(getString());
+            }
+            return values;
+        }
+
+        RuntimeException getError() {
+            byte code = buffer.get();
+            String message = getString();
+            RemoteError[] errors = RemoteError.values();
+            return code >= 0 && code < errors.length
+                    ? errors[code].toException(message)
+                    : RemoteError.OTHER.toException(message);
+        }
+
+        /**
+         * @return the size, {@code -1} for a {@code null} collection
+         */
+        private int getSize() {
+            long encoded = getVarint();
+            return encoded == 0 ? -1 : checkLength(encoded - 1);
+        }
+
+        private int checkLength(long length) {
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("Malformed frame!");
+            }
+            return (int) length;
+        }
+
+        private long getVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint!");
+        }
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,320 @@
+package com.waadsoft.testing.user;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Embedded server exposing a {@link UserService} to {@link UserRpcClient}s, over the frames of
+ * {@link UserRpcProtocol}.
+ * <p>
+ * A single selector thread does all the socket I/O. Each request frame is handed to a worker as soon as it is read,
+ * so the requests pipelined on a connection run concurrently, and their responses are written back in completion
+ * order, several at a time.
+ */
+public class UserRpcServer implements AutoCloseable {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_RESPONSES_PER_WRITE = 64;
+    private static final AtomicInteger SERVERS = new AtomicInteger();
+
+    private final UserService userService;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+    private final Queue<Connection> writable = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    /**
+     * Binds and starts serving right away.
+     *
+     * @param address       where to listen, with port {@code 0} to pick any free port
+     * @param workerThreads how many requests are served at once, across all connections
+     */
+    public UserRpcServer(UserService userService, InetSocketAddress address, int workerThreads) {
+        if (workerThreads <= 0) {
+            throw new IllegalArgumentException("Invalid worker threads specified!");
+        }
+        this.userService = requireNonNull(userService);
+        int server = SERVERS.incrementAndGet();
+        try {
+            this.selector = Selector.open();
+            this.serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        AtomicInteger workerIds = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, task -> {
+            Thread worker = new Thread(task, "user-rpc-" + server + "-worker-" + workerIds.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+        this.selectorThread = new Thread(this::serve, "user-rpc-" + server + "-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops accepting calls and drops every connection. Calls still in flight fail on the client side.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                 S E L E C T O R   L O O P               |
+    ==========================================================*/
+    private void serve() {
+        while (!closed) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                return;
+            }
+            for (Connection connection = writable.poll(); connection != null; connection = writable.poll()) {
+                if (connection.key.isValid()) {
+                    connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    closeQuietly(key);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // the connection is dropped either way
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                  C O N N E C T I O N S                  |
+    ==========================================================*/
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        private Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        private void read() throws IOException {
+            if (channel.read(readBuffer) < 0) {
+                closeQuietly(key);
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.remaining() >= Integer.BYTES) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < Integer.BYTES + 1 || length > UserRpcProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (readBuffer.remaining() < Integer.BYTES + length) {
+                    if (readBuffer.capacity() < Integer.BYTES + length) {
+                        readBuffer = ByteBuffer.allocate(Integer.BYTES + length).put(readBuffer).flip();
+                    }
+                    break;
+                }
+                readBuffer.position(readBuffer.position() + Integer.BYTES);
+                byte[] frame = new byte[length];
+                readBuffer.get(frame);
+                workers.execute(() -> respond(ByteBuffer.wrap(frame)));
+            }
+            readBuffer.compact();
+        }
+
+        private void respond(ByteBuffer frame) {
+            int requestId = frame.getInt();
+            ByteBuffer response;
+            try {
+                UserRpcProtocol.Method method = UserRpcProtocol.Method.of(frame.get());
+                UserRpcProtocol.Encoder result = new UserRpcProtocol.Encoder(requestId, UserRpcProtocol.OK);
+                invoke(method, new UserRpcProtocol.Decoder(frame), result);
+                response = result.toFrame();
+            } catch (RuntimeException e) {
+                response = new UserRpcProtocol.Encoder(requestId, UserRpcProtocol.ERROR).putError(e).toFrame();
+            }
+            responses.add(response);
+            writable.add(this);
+            selector.wakeup();
+        }
+
+        private void write() throws IOException {
+            ByteBuffer[] batch = new ByteBuffer[MAX_RESPONSES_PER_WRITE];
+            int size = 0;
+            for (ByteBuffer response : responses) {
+                batch[size++] = response;
+                if (size == batch.length) {
+                    break;
+                }
+            }
+            channel.write(batch, 0, size);
+            for (int index = 0; index < size && !batch[index].hasRemaining(); index++) {
+                responses.poll();
+            }
+            if (responses.isEmpty()) {
+                // a response added from now on registers the connection as writable again
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                  D I S P A T C H I N G                  |
+    ==========================================================*/
+    private void invoke(UserRpcProtocol.Method method, UserRpcProtocol.Decoder arguments,
+                        UserRpcProtocol.Encoder result) {
+        switch (method) {
+            case ADD_USER:
+                result.putUser(userService.addUser(arguments.getUser()));
+                break;
+            case UPDATE_USER:
+                result.putUser(userService.updateUser(arguments.getUser()));
+                break;
+            case GET_USER_BY_ID:
+                result.putUser(userService.getUserById(arguments.getInteger()).orElse(null));
+                break;
+            case GET_USER_BY_EMAIL:
+                result.putUser(userService.getUserByEmail(arguments.getString()).orElse(null));
+                break;
+            case GET_USER_BY_USERNAME:
+                result.putUser(userService.getUserByUsername(arguments.getString()).orElse(null));
+                break;
+            case GET_USERS:
+                result.putUsers(userService.getUsers());
+                break;
+            case GET_USERS_BY_ID:
+                result.putUsers(userService.getUsersById(arguments.getIntegers()));
+                break;
+            case GET_USERS_BY_EMAIL:
+                result.putUsers(userService.getUsersByEmail(arguments.getStrings()));
+                break;
+            case GET_USERS_BY_USERNAME:
+                result.putUsers(userService.getUsersByUsername(arguments.getStrings()));
+                break;
+            case DELETE_USER:
+                userService.deleteUser(arguments.getUser());
+                break;
+            case DELETE_USER_BY_ID:
+                userService.deleteUserById(arguments.getInteger());
+                break;
+            case DELETE_USER_BY_EMAIL:
+                userService.deleteUserByEmail(arguments.getString());
+                break;
+            case DELETE_USER_BY_USERNAME:
+                userService.deleteUserByUsername(arguments.getString());
+                break;
+            case DELETE_USERS_BY_EMAIL:
+                userService.deleteUsersByEmail(arguments.getStrings());
+                break;
+            case DELETE_USERS_BY_ID:
+                userService.deleteUsersById(arguments.getIntegers());
+                break;
+            case DELETE_USERS_BY_USERNAME:
+                userService.deleteUsersByUsername(arguments.getStrings());
+                break;
+            case COUNT_USERS:
+                result.putInteger(userService.countUsers());
+                break;
+        }
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
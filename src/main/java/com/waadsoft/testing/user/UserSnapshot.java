@@ -0,0 +1,55 @@
+package com.waadsoft.testing.user;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Read-only, point-in-time view of a {@link UserRepository}. It can be read from any thread without blocking
+ * writers and must be closed so the repository can drop the versions it retains.
+ */
+public interface UserSnapshot extends AutoCloseable {
+
+    /**
+     * @return the repository version this snapshot sees
+     */
+    long version();
+
+    Optional<User> findById(Integer userId);
+
+    Optional<User> findByEmail(String email);
+
+    Optional<User> findByUsername(String username);
+
+    List<User> findAll();
+
+    void forEach(Consumer<? super User> action);
+
+    /**
+     * @return a lazy cursor over the users of this snapshot
+     */
+    Iterator<User> iterator();
+
+    int count();
+
+    @Override
+    void close();
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
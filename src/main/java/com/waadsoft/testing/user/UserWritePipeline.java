@@ -0,0 +1,199 @@
+package com.waadsoft.testing.user;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Coalesces writes from many threads into batches applied to a {@link UserRepository} by a single writer thread.
+ * <p>
+ * Writes are queued in a bounded queue and applied in submission order, which keeps every key's writes ordered.
+ * A batch is drained once it reaches {@code maxBatchSize} writes or its first write has waited {@code maxLinger}.
+ * Runs of consecutive adds go to the repository as one {@link UserRepository#addAll(java.util.Collection)};
+ * if that batch is rejected, its adds are retried one by one so that each caller gets its own outcome.
+ */
+public class UserWritePipeline implements AutoCloseable {
+
+    private final UserRepository userRepository;
+    private final BlockingQueue<Write<?>> queue;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    public UserWritePipeline(UserRepository userRepository, int queueCapacity, int maxBatchSize, Duration maxLinger) {
+        if (queueCapacity <= 0 || maxBatchSize <= 0 || maxLinger.isNegative()) {
+            throw new IllegalArgumentException("Invalid pipeline settings!");
+        }
+        this.userRepository = requireNonNull(userRepository);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = maxLinger.toNanos();
+        this.writer = new Thread(this::drain, "user-write-pipeline");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public CompletableFuture<User> add(User user) {
+        return submit(new Write<>(user, null));
+    }
+
+    public CompletableFuture<User> update(User user) {
+        return submit(new Write<>(user, repository -> repository.update(user)));
+    }
+
+    public CompletableFuture<Void> delete(User user) {
+        return submit(new Write<>(null, repository -> {
+            repository.delete(user);
+            return null;
+        }));
+    }
+
+    public CompletableFuture<Void> deleteById(Integer userId) {
+        return submit(new Write<>(null, repository -> {
+            repository.deleteById(userId);
+            return null;
+        }));
+    }
+
+    public CompletableFuture<Void> deleteByEmail(String email) {
+        return submit(new Write<>(null, repository -> {
+            repository.deleteByEmail(email);
+            return null;
+        }));
+    }
+
+    public CompletableFuture<Void> deleteByUsername(String username) {
+        return submit(new Write<>(null, repository -> {
+            repository.deleteByUsername(username);
+            return null;
+        }));
+    }
+
+    /**
+     * Stops accepting writes; the ones already queued are still applied.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        writer.interrupt();
+    }
+
+    private <T> CompletableFuture<T> submit(Write<T> write) {
+        if (closed) {
+            write.result.completeExceptionally(new IllegalStateException("Write pipeline closed!"));
+        } else if (!queue.offer(write)) {
+            write.result.completeExceptionally(new ServiceOverloadedException("Write pipeline full!"));
+        } else if (closed && queue.remove(write)) {
+            write.result.completeExceptionally(new IllegalStateException("Write pipeline closed!"));
+        }
+        return write.result;
+    }
+
+    private void drain() {
+        List<Write<?>> batch = new ArrayList<>(maxBatchSize);
+        while (!closed || !queue.isEmpty()) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxLingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    Write<?> write = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (write == null) {
+                        break;
+                    }
+                    batch.add(write);
+                }
+            } catch (InterruptedException e) {
+                queue.drainTo(batch);
+            }
+            apply(batch);
+            batch.clear();
+        }
+    }
+
+    private void apply(List<Write<?>> batch) {
+        List<Write<?>> adds = new ArrayList<>();
+        for (Write<?> write : batch) {
+            if (write.isAdd()) {
+                adds.add(write);
+                continue;
+            }
+            applyAdds(adds);
+            write.applyTo(userRepository);
+        }
+        applyAdds(adds);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void applyAdds(List<Write<?>> adds) {
+        if (adds.isEmpty()) {
+            return;
+        }
+        List<User> users = new ArrayList<>(adds.size());
+        adds.forEach(write -> users.add(write.user));
+        List<User> added = null;
+        try {
+            added = userRepository.addAll(users);
+        } catch (RuntimeException e) {
+            adds.forEach(write -> write.applyTo(userRepository));
+        }
+        if (added != null) {
+            for (int i = 0; i < adds.size(); i++) {
+                ((Write<User>) adds.get(i)).result.complete(added.get(i));
+            }
+        }
+        adds.clear();
+    }
+
+    private static final class Write<T> {
+
+        private final User user;
+        private final Function<UserRepository, T> operation;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        /**
+         * @param operation {@code null} for an add of the given user
+         */
+        private Write(User user, Function<UserRepository, T> operation) {
+            this.user = user;
+            this.operation = operation;
+        }
+
+        private boolean isAdd() {
+            return operation == null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void applyTo(UserRepository userRepository) {
+            try {
+                result.complete(isAdd() ? (T) userRepository.add(user) : operation.apply(userRepository));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,86 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares lookups made directly on a repository with the same lookups through stacks of forwarding layers. Run with
+ * {@code mvn test -Pbenchmark}; the figures are printed, not asserted.
+ */
+@Tag("benchmark")
+class DecoratorChainBenchmarkTest {
+
+    private static final int USERS = 10_000;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int MEASURED_ROUNDS = 200;
+
+    @Test
+    void shouldReportLayeredAgainstDirectLookups() {
+        UserRepositoryImpl target = new UserRepositoryImpl();
+        for (int i = 0; i < USERS; i++) {
+            target.add(new User("user" + i, "user" + i + "@example.com"));
+        }
+        List<Function<UserRepository, UserRepository>> layers = List.of(
+                delegate -> new ForwardingUserRepository(delegate) {
+                },
+                delegate -> new ForwardingUserRepository(delegate) {
+                },
+                delegate -> new ForwardingUserRepository(delegate) {
+                },
+                delegate -> new ForwardingUserRepository(delegate) {
+                });
+
+        List<String> results = new ArrayList<>();
+        for (int depth = 0; depth <= layers.size(); depth++) {
+            DecoratorChain<UserRepository> chain = DecoratorChain.of(target);
+            layers.subList(0, depth).forEach(chain::with);
+            UserRepository repository = chain.build();
+
+            measure(repository, WARMUP_ROUNDS);
+            long elapsed = measure(repository, MEASURED_ROUNDS);
+            results.add(String.format("%d layer(s): %.1f ns/lookup", depth,
+                    (double) elapsed / ((long) MEASURED_ROUNDS * USERS)));
+        }
+
+        results.forEach(System.out::println);
+        assertThat(results).hasSize(layers.size() + 1);
+    }
+
+    private long measure(UserRepository repository, int rounds) {
+        long found = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int userId = 1; userId <= USERS; userId++) {
+                if (repository.findByIdOrNull(userId) != null) {
+                    found++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertThat(found).isEqualTo((long) rounds * USERS);
+        return elapsed;
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,81 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DecoratorChainTest {
+
+    @Test
+    void shouldApplyLayersInnermostFirst() {
+        List<String> calls = new ArrayList<>();
+
+        UserRepository repository = DecoratorChain.<UserRepository>of(new UserRepositoryImpl())
+                .with(target -> recording(target, "inner", calls))
+                .with(target -> recording(target, "outer", calls))
+                .build();
+        repository.add(new User("alaza", "alaza@alaza.com"));
+
+        assertThat(calls).containsExactly("outer", "inner");
+    }
+
+    @Test
+    void shouldForwardUninterceptedCallsToTarget() {
+        UserRepository target = new UserRepositoryImpl();
+        target.add(new User("alaza", "alaza@alaza.com"));
+
+        UserRepository repository = DecoratorChain.of(target)
+                .with(layer -> recording(layer, "layer", new ArrayList<>()))
+                .build();
+
+        assertThat(repository.findByEmail("alaza@alaza.com")).isPresent();
+        assertThat(repository.count()).isEqualTo(1);
+        assertThat(repository.stats().getUserCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldStackServiceDecoratorsOfDifferentTypes() {
+        OffHeapUserCache cache = new OffHeapUserCache(1 << 20);
+        UserService userServiceImpl = new UserServiceImpl(new UserRepositoryImpl());
+
+        UserService service = DecoratorChain.<UserService>of(userServiceImpl)
+                .with(target -> new CachingUserService(target, cache))
+                .with(target -> new ForwardingUserService(target) {
+                })
+                .build();
+        User alaza = service.addUser(new User("alaza", "alaza@alaza.com"));
+
+        assertThat(service.getUserById(alaza.getUserId())).contains(alaza);
+        assertThat(service.countUsers()).isEqualTo(1);
+    }
+
+    private UserRepository recording(UserRepository target, String name, List<String> calls) {
+        return new ForwardingUserRepository(target) {
+            @Override
+            public User add(User user) {
+                calls.add(name);
+                return super.add(user);
+            }
+        };
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
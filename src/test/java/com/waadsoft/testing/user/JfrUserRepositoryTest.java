@@ -0,0 +1,111 @@
+package com.waadsoft.testing.user;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+class JfrUserRepositoryTest {
+
+    @TempDir
+    Path recordingDirectory;
+
+    @Test
+    void shouldRecordEveryOperationWhenThresholdIsZero() throws IOException {
+        UserService userService = new JfrUserService(new UserServiceImpl(new JfrUserRepository(new UserRepositoryImpl())));
+
+        List<RecordedEvent> events = record(Duration.ZERO, () -> {
+            userService.addUser(new User("alaza", "alaza@alaza.com"));
+            userService.getUserByEmail("alaza@alaza.com");
+            userService.getUsers();
+            assertThatExceptionOfType(UserNotFoundException.class).isThrownBy(() -> userService.deleteUserById(42));
+        });
+
+        assertThat(events)
+                .extracting(event -> event.getString("layer"), event -> event.getString("method"),
+                        event -> event.getString("keyType"), event -> event.getString("accessPath"),
+                        event -> event.getInt("resultSize"))
+                .contains(
+                        tuple("repository", "add", "none", "write", 1),
+                        tuple("service", "addUser", "none", "write", 1),
+                        tuple("repository", "findByEmail", "email", "index", 1),
+                        tuple("repository", "findAll", "none", "scan", 1),
+                        tuple("service", "deleteUserById", "id", "write", -1));
+    }
+
+    @Test
+    void shouldRecordAccessPathOfQueryPlan() throws IOException {
+        UserRepository userRepository = new JfrUserRepository(new UserRepositoryImpl());
+        userRepository.add(new User("alaza", "alaza@example.com"));
+        userRepository.add(new User("bako", "bako@other.com"));
+        userRepository.add(new User("aminou", "aminou@other.com"));
+
+        List<RecordedEvent> events = record(Duration.ZERO, () -> {
+            userRepository.find(UserQuery.where(UserQuery.emailDomain("example.com")));
+            userRepository.find(UserQuery.where(UserQuery.idBetween(1, 1)));
+            userRepository.find(UserQuery.where(UserQuery.emailEquals("bako@other.com").or(UserQuery.usernameEquals("alaza"))));
+            userRepository.find(UserQuery.where(UserQuery.usernameStartsWith("ba")));
+        });
+
+        assertThat(events)
+                .filteredOn(event -> event.getString("method").equals("find"))
+                .extracting(event -> event.getString("keyType"), event -> event.getString("accessPath"),
+                        event -> event.getInt("resultSize"))
+                .containsExactly(
+                        tuple("emailDomain", "index", 1),
+                        tuple("id", "index", 1),
+                        tuple("email,username", "index", 2),
+                        tuple("none", "scan", 1));
+    }
+
+    @Test
+    void shouldSkipFastOperationsWhenBelowThreshold() throws IOException {
+        UserRepository userRepository = new JfrUserRepository(new UserRepositoryImpl());
+
+        List<RecordedEvent> events = record(Duration.ofSeconds(10), () -> userRepository.add(new User("alaza", "alaza@alaza.com")));
+
+        assertThat(events).isEmpty();
+    }
+
+    private List<RecordedEvent> record(Duration threshold, Runnable operations) throws IOException {
+        Path file = recordingDirectory.resolve("operations.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(UserOperationEvent.NAME).withThreshold(threshold);
+            recording.start();
+            operations.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals(UserOperationEvent.NAME))
+                .collect(toList());
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
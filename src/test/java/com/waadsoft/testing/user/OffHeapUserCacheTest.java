@@ -0,0 +1,146 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapUserCacheTest {
+
+    @Test
+    void shouldFindCachedUserByIdEmailAndUsername() {
+        OffHeapUserCache cache = new OffHeapUserCache(4096);
+        User alaza = new User(1, "alaza", "alaza@alaza.com");
+
+        cache.put(alaza, cache.stamp());
+
+        assertThat(cache.getById(1)).contains(alaza);
+        assertThat(cache.getByEmail("alaza@alaza.com")).contains(alaza);
+        assertThat(cache.getByUsername("alaza")).contains(alaza);
+        assertThat(cache.getByEmail("bako@bako.com")).isEmpty();
+        assertThat(cache.hitRate()).isEqualTo(0.75);
+        assertThat(cache.bytesResident()).isEqualTo(UserCodec.encodedLength(alaza));
+    }
+
+    @Test
+    void shouldMissStaleAliasesWhenUserIsReplaced() {
+        OffHeapUserCache cache = new OffHeapUserCache(4096);
+        cache.put(new User(1, "alaza", "alaza@alaza.com"), cache.stamp());
+
+        cache.put(new User(1, "alaza", "alaza@other.com"), cache.stamp());
+
+        assertThat(cache.getByEmail("alaza@alaza.com")).isEmpty();
+        assertThat(cache.getByEmail("alaza@other.com")).map(User::getUserId).contains(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldStayWithinCapacityWhenMoreUsersThanSlotsArePut() {
+        OffHeapUserCache cache = new OffHeapUserCache(1024, 64, 2);
+
+        IntStream.range(0, 100).forEach(i -> cache.put(new User(i, "user" + i, "user" + i + "@example.com"), cache.stamp()));
+
+        assertThat(cache.size()).isEqualTo(16);
+        assertThat(cache.bytesResident()).isLessThanOrEqualTo(cache.capacityBytes());
+    }
+
+    @Test
+    void shouldKeepRecentlyReadUsersWhenEvicting() {
+        OffHeapUserCache cache = new OffHeapUserCache(256, 64, 1);
+        IntStream.range(0, 4).forEach(i -> cache.put(new User(i, "user" + i, "user" + i + "@example.com"), cache.stamp()));
+        cache.getById(0);
+
+        cache.put(new User(4, "user4", "user4@example.com"), cache.stamp());
+
+        assertThat(cache.getById(0)).isPresent();
+        assertThat(cache.getById(1)).isEmpty();
+    }
+
+    @Test
+    void shouldNotCacheUserReadBeforeAnInvalidation() {
+        OffHeapUserCache cache = new OffHeapUserCache(4096);
+        long stamp = cache.stamp();
+
+        cache.invalidate(1);
+
+        assertThat(cache.put(new User(1, "alaza", "alaza@alaza.com"), stamp)).isFalse();
+        assertThat(cache.getById(1)).isEmpty();
+    }
+
+    @Test
+    void shouldNotServeDeletedUserFromCache() {
+        CachingUserService userService = new CachingUserService(
+                new UserServiceImpl(new UserRepositoryImpl()), new OffHeapUserCache(4096));
+        User alaza = userService.addUser(new User("alaza", "alaza@alaza.com"));
+        userService.getUserById(alaza.getUserId());
+
+        userService.deleteUserByEmail("alaza@alaza.com");
+
+        assertThat(userService.getUserById(alaza.getUserId())).isEmpty();
+        assertThat(userService.getCache().size()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldNotServeDeletedUserWhenEmailMovesDuringDelete() throws Exception {
+        UserService backing = new UserServiceImpl(new UserRepositoryImpl());
+        User alaza = backing.addUser(new User("alaza", "alaza@alaza.com"));
+        AtomicReference<CachingUserService> userService = new AtomicReference<>();
+        AtomicBoolean resolving = new AtomicBoolean(true);
+        Thread mover = new Thread(() -> {
+            try {
+                userService.get().updateUser(new User(alaza.getUserId(), "alaza", "moved@alaza.com"));
+                userService.get().addUser(new User("bako", "alaza@alaza.com"));
+                userService.get().getUserByEmail("alaza@alaza.com");
+            } catch (UserNotFoundException e) {
+                // the delete went first
+            }
+        });
+        userService.set(new CachingUserService(new ForwardingUserService(backing) {
+            @Override
+            public Optional<User> getUserByEmail(String email) {
+                Optional<User> user = super.getUserByEmail(email);
+                if (resolving.getAndSet(false)) {
+                    // gives another writer the chance to move the email before the delete runs
+                    mover.start();
+                    joinQuietly(mover, 200);
+                }
+                return user;
+            }
+        }, new OffHeapUserCache(4096)));
+
+        userService.get().deleteUserByEmail("alaza@alaza.com");
+        mover.join();
+
+        assertThat(userService.get().getUserByEmail("alaza@alaza.com")).isEqualTo(backing.getUserByEmail("alaza@alaza.com"));
+        assertThat(userService.get().getUserById(alaza.getUserId())).isEqualTo(backing.getUserById(alaza.getUserId()));
+    }
+
+    private static void joinQuietly(Thread thread, long millis) {
+        try {
+            thread.join(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
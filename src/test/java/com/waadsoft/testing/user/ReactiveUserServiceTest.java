@@ -0,0 +1,130 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReactiveUserServiceTest {
+
+    private final UserRepository userRepository = new UserRepositoryImpl();
+    private final ReactiveUserService userService = new ReactiveUserServiceImpl(userRepository);
+
+    @Test
+    void shouldEmitOnlyRequestedUsers() {
+        userRepository.add(givenUserAlaza());
+        userRepository.add(givenUserBako());
+        userRepository.add(givenUserAminou());
+        RecordingSubscriber<User> subscriber = new RecordingSubscriber<>();
+
+        userService.getUsers().subscribe(subscriber);
+        subscriber.subscription.request(2);
+
+        assertThat(subscriber.items).hasSize(2);
+        assertThat(subscriber.completed).isFalse();
+
+        subscriber.subscription.request(5);
+
+        assertThat(subscriber.items).containsOnly(givenUserAlaza(), givenUserBako(), givenUserAminou());
+        assertThat(subscriber.completed).isTrue();
+    }
+
+    @Test
+    void shouldLookUsersUpLazily() {
+        User alaza = userRepository.add(givenUserAlaza());
+        User bako = userRepository.add(givenUserBako());
+        RecordingSubscriber<User> subscriber = new RecordingSubscriber<>();
+
+        userService.getUsersById(List.of(alaza.getUserId(), 1000, bako.getUserId())).subscribe(subscriber);
+        userRepository.deleteById(bako.getUserId());
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertThat(subscriber.items).containsExactly(alaza);
+        assertThat(subscriber.completed).isTrue();
+    }
+
+    @Test
+    void shouldNotWriteUntilRequested() {
+        RecordingSubscriber<User> subscriber = new RecordingSubscriber<>();
+
+        userService.addUser(givenUserAlaza()).subscribe(subscriber);
+
+        assertThat(userRepository.count()).isEqualTo(0);
+
+        subscriber.subscription.request(1);
+
+        assertThat(subscriber.items).singleElement().extracting(User::getUserId).isEqualTo(1);
+        assertThat(userRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldSignalErrorWhenOperationFails() {
+        RecordingSubscriber<Void> subscriber = new RecordingSubscriber<>();
+
+        userService.deleteUserById(1000).subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        assertThat(subscriber.error).isInstanceOf(UserNotFoundException.class);
+        assertThat(subscriber.completed).isFalse();
+    }
+
+    @Test
+    void shouldDeleteUsersInBatchWhenRequested() {
+        User alaza = userRepository.add(givenUserAlaza());
+        User bako = userRepository.add(givenUserBako());
+        userRepository.add(givenUserAminou());
+        RecordingSubscriber<Void> subscriber = new RecordingSubscriber<>();
+
+        userService.deleteUsersById(List.of(alaza.getUserId(), bako.getUserId())).subscribe(subscriber);
+
+        assertThat(userRepository.count()).isEqualTo(3);
+
+        subscriber.subscription.request(1);
+
+        assertThat(subscriber.completed).isTrue();
+        assertThat(userRepository.findAll()).containsOnly(givenUserAminou());
+    }
+
+    private User givenUserAlaza() {
+        return new User("alaza", "alaza@alaza.com");
+    }
+
+    private User givenUserBako() {
+        return new User("bako", "bako@bako.com");
+    }
+
+    private User givenUserAminou() {
+        return new User("aminou", "aminou@aminou.com");
+    }
+
+    private static class RecordingSubscriber<T> implements Flow.Subscriber<T> {
+
+        private final List<T> items = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private Throwable error;
+        private boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class ReplicaUserRepositoryTest {
+
+    private final UserRepository leaderRepository = new UserRepositoryImpl();
+    private final LoopbackReplicationTransport transport = new LoopbackReplicationTransport();
+
+    @Test
+    void shouldServeReadsOfReplicatedChanges() {
+        ReplicaUserRepository replica = givenReplica(Duration.ofMinutes(1));
+        ReplicationLeader leader = new ReplicationLeader(leaderRepository, transport);
+
+        User alaza = leaderRepository.add(givenUserAlaza());
+        User bako = leaderRepository.add(givenUserBako());
+        leaderRepository.update(new User(alaza.getUserId(), alaza.getUsername(), "alaza@other.com"));
+        leaderRepository.deleteAllById(List.of(bako.getUserId()));
+        replica.awaitSequence(leader.lastSequence(), Duration.ofSeconds(5));
+
+        assertThat(replica.appliedSequence()).isEqualTo(leader.lastSequence());
+        assertThat(replica.findAll()).containsOnly(alaza);
+        assertThat(replica.findById(alaza.getUserId())).get().extracting(User::getEmail).isEqualTo("alaza@other.com");
+    }
+
+    @Test
+    void shouldKeepIdsOfUndeletedUsersWhenReplicaIsDecorated() {
+        UserRepositoryImpl undeletingRepository = new UserRepositoryImpl(UserRepositoryImpl.DEFAULT_CHANGE_LOG_CAPACITY,
+                UserKeyNormalizer.exact(), Duration.ofMinutes(1));
+        ReplicaUserRepository replica = new ReplicaUserRepository(
+                new JfrUserRepository(new UserRepositoryImpl()), Duration.ofMinutes(1));
+        transport.connect(replica);
+        ReplicationLeader leader = new ReplicationLeader(undeletingRepository, transport);
+
+        User alaza = undeletingRepository.add(givenUserAlaza());
+        undeletingRepository.add(givenUserBako());
+        undeletingRepository.deleteById(alaza.getUserId());
+        undeletingRepository.undeleteById(alaza.getUserId());
+        replica.awaitSequence(leader.lastSequence(), Duration.ofSeconds(5));
+
+        assertThat(replica.findById(alaza.getUserId())).contains(alaza);
+        assertThat(replica.findAll()).extracting(User::getUserId)
+                .containsExactlyInAnyOrderElementsOf(undeletingRepository.findAll().stream().map(User::getUserId)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    void shouldWaitForReadYourWritesToken() {
+        ReplicaUserRepository replica = givenReplica(Duration.ofMinutes(1));
+        ReplicationLeader leader = new ReplicationLeader(leaderRepository, transport);
+        leaderRepository.add(givenUserAlaza());
+
+        replica.awaitSequence(leader.lastSequence(), Duration.ofSeconds(5));
+
+        assertThatExceptionOfType(ReplicaStaleException.class)
+                .isThrownBy(() -> replica.awaitSequence(leader.lastSequence() + 1, Duration.ofMillis(10)))
+                .withMessageContaining("not replicated yet");
+    }
+
+    @Test
+    void shouldThrowExceptionWhenReplicaIsTooStale() throws InterruptedException {
+        ReplicaUserRepository replica = givenReplica(Duration.ofMillis(1));
+        ReplicationLeader leader = new ReplicationLeader(leaderRepository, transport);
+        Thread.sleep(5);
+
+        assertThatExceptionOfType(ReplicaStaleException.class)
+                .isThrownBy(replica::findAll)
+                .withMessageContaining("out of sync");
+        assertThat(replica.count()).isEqualTo(0);
+
+        leader.heartbeat();
+        assertThat(replica.findAll()).isEmpty();
+    }
+
+    @Test
+    void shouldKeepIdleReplicaReadableWithScheduledHeartbeats() throws InterruptedException {
+        ReplicaUserRepository replica = givenReplica(Duration.ofMillis(200));
+        try (ReplicationLeader leader = new ReplicationLeader(leaderRepository, transport, 0, Duration.ofMillis(10))) {
+            User alaza = leaderRepository.add(givenUserAlaza());
+            replica.awaitSequence(leader.lastSequence(), Duration.ofSeconds(5));
+            Thread.sleep(400);
+
+            assertThat(replica.findAll()).containsOnly(alaza);
+        }
+    }
+
+    @Test
+    void shouldFailReadsWhenReplicatedChangeConflicts() {
+        UserRepository local = new UserRepositoryImpl();
+        local.add(givenUserAlaza());
+        ReplicaUserRepository replica = new ReplicaUserRepository(local, Duration.ofMinutes(1));
+        transport.connect(replica);
+        ReplicationLeader leader = new ReplicationLeader(leaderRepository, transport);
+
+        leaderRepository.add(givenUserAlaza());
+        leaderRepository.add(givenUserBako());
+
+        assertThatExceptionOfType(ReplicaStaleException.class)
+                .isThrownBy(() -> replica.awaitSequence(leader.lastSequence(), Duration.ofSeconds(5)))
+                .withMessageContaining("Failed to apply change")
+                .withCauseInstanceOf(DuplicateUserException.class);
+        assertThatExceptionOfType(ReplicaStaleException.class)
+                .isThrownBy(replica::findAll)
+                .withCauseInstanceOf(DuplicateUserException.class);
+        assertThat(replica.appliedSequence()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldStopShippingChangesWhenLeaderIsClosed() throws InterruptedException {
+        ReplicaUserRepository replica = givenReplica(Duration.ofMinutes(1));
+        ReplicationLeader leader = new ReplicationLeader(leaderRepository, transport);
+        User alaza = leaderRepository.add(givenUserAlaza());
+        replica.awaitSequence(leader.lastSequence(), Duration.ofSeconds(5));
+
+        leader.close();
+        leaderRepository.add(givenUserBako());
+        Thread.sleep(200);
+
+        assertThat(replica.appliedSequence()).isEqualTo(1);
+        assertThat(replica.findAll()).containsOnly(alaza);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenWritingToReplica() {
+        ReplicaUserRepository replica = givenReplica(Duration.ofMinutes(1));
+
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> replica.add(givenUserAlaza()))
+                .withMessageContaining("read-only");
+    }
+
+    private ReplicaUserRepository givenReplica(Duration maxStaleness) {
+        ReplicaUserRepository replica = new ReplicaUserRepository(new UserRepositoryImpl(), maxStaleness);
+        transport.connect(replica);
+        return replica;
+    }
+
+    private User givenUserAlaza() {
+        return new User("alaza", "alaza@alaza.com");
+    }
+
+    private User givenUserBako() {
+        return new User("bako", "bako@bako.com");
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
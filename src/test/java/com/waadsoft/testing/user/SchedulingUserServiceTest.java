@@ -0,0 +1,158 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SchedulingUserServiceTest {
+
+    @Mock
+    private UserService userService;
+
+    private SchedulingUserService schedulingService;
+
+    @AfterEach
+    void closeService() {
+        schedulingService.close();
+    }
+
+    @Test
+    void shouldDelegateAndPropagateExceptions() {
+        schedulingService = new SchedulingUserService(userService, 2, 10);
+        User user = new User(1, "alaza", "alaza@alaza.com");
+        when(userService.getUserById(1)).thenReturn(Optional.of(user));
+        doThrow(new UserNotFoundException("User doesn't exist!")).when(userService).deleteUserById(2);
+
+        assertThat(schedulingService.getUserById(1)).containsSame(user);
+        assertThatExceptionOfType(UserNotFoundException.class).isThrownBy(() -> schedulingService.deleteUserById(2));
+        assertThat(schedulingService.laneStats(UserOperationClass.LOOKUP).getStarted()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldShedLoadWhenRateLimitExceeded() {
+        schedulingService = new SchedulingUserService(userService, 1, 10,
+                Map.of(UserOperationClass.BULK_READ, new TokenBucket(1, 0)));
+        when(userService.getUsers()).thenReturn(List.of());
+
+        schedulingService.getUsers();
+
+        assertThatExceptionOfType(ServiceOverloadedException.class)
+                .isThrownBy(() -> schedulingService.getUsers())
+                .withMessageContaining("Rate limit exceeded for BULK_READ");
+        assertThat(schedulingService.laneStats(UserOperationClass.BULK_READ).getRejected()).isEqualTo(1);
+        verify(userService, times(1)).getUsers();
+    }
+
+    @Test
+    void shouldShedLoadWhenLaneIsFull() throws InterruptedException {
+        schedulingService = new SchedulingUserService(userService, 1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userService.countUsers()).thenAnswer(invocation -> {
+            running.countDown();
+            release.await();
+            return 0;
+        });
+        CompletableFuture<Integer> busy = CompletableFuture.supplyAsync(schedulingService::countUsers);
+        running.await();
+        CompletableFuture<Integer> queued = CompletableFuture.supplyAsync(schedulingService::countUsers);
+        while (schedulingService.laneStats(UserOperationClass.LOOKUP).getQueueDepth() == 0) {
+            Thread.onSpinWait();
+        }
+
+        assertThatExceptionOfType(ServiceOverloadedException.class)
+                .isThrownBy(() -> schedulingService.countUsers())
+                .withMessageContaining("Too many pending LOOKUP");
+        release.countDown();
+        assertThat(busy.join()).isEqualTo(0);
+        assertThat(queued.join()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldNotSpendRateBudgetWhenLaneIsFull() throws InterruptedException {
+        schedulingService = new SchedulingUserService(userService, 1, 1,
+                Map.of(UserOperationClass.LOOKUP, new TokenBucket(3, 0)));
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userService.countUsers()).thenAnswer(invocation -> {
+            running.countDown();
+            release.await();
+            return 0;
+        });
+        CompletableFuture<Integer> busy = CompletableFuture.supplyAsync(schedulingService::countUsers);
+        running.await();
+        CompletableFuture<Integer> queued = CompletableFuture.supplyAsync(schedulingService::countUsers);
+        while (schedulingService.laneStats(UserOperationClass.LOOKUP).getQueueDepth() == 0) {
+            Thread.onSpinWait();
+        }
+
+        assertThatExceptionOfType(ServiceOverloadedException.class)
+                .isThrownBy(() -> schedulingService.countUsers())
+                .withMessageContaining("Too many pending LOOKUP");
+        release.countDown();
+        busy.join();
+        queued.join();
+
+        assertThat(schedulingService.countUsers()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldFailPendingCallsWhenClosed() throws InterruptedException {
+        schedulingService = new SchedulingUserService(userService, 1, 10);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userService.countUsers()).thenAnswer(invocation -> {
+            running.countDown();
+            release.await();
+            return 0;
+        });
+        CompletableFuture.supplyAsync(schedulingService::countUsers);
+        running.await();
+        CompletableFuture<Integer> queued = CompletableFuture.supplyAsync(schedulingService::countUsers);
+        while (schedulingService.laneStats(UserOperationClass.LOOKUP).getQueueDepth() == 0) {
+            Thread.onSpinWait();
+        }
+
+        schedulingService.close();
+        release.countDown();
+
+        assertThatExceptionOfType(CompletionException.class)
+                .isThrownBy(queued::join)
+                .withCauseInstanceOf(IllegalStateException.class)
+                .withMessageContaining("User service scheduler closed!");
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> schedulingService.countUsers())
+                .withMessage("User service scheduler closed!");
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
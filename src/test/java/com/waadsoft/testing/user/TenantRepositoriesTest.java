@@ -0,0 +1,135 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class TenantRepositoriesTest {
+
+    private final TenantRepositories tenants = new TenantRepositories();
+
+    @Test
+    void shouldIsolateUsersOfEachTenant() {
+        UserRepository acme = tenants.register("acme", TenantQuota.unlimited());
+        UserRepository globex = tenants.register("globex", TenantQuota.unlimited());
+
+        User alaza = acme.add(givenUserAlaza());
+        globex.add(givenUserAlaza());
+        globex.add(givenUserBako());
+
+        assertThat(tenants.forTenant("acme").findAll()).containsOnly(alaza);
+        assertThat(globex.count()).isEqualTo(2);
+        assertThat(tenants.metrics()).extracting(TenantMetrics::getTenantId, TenantMetrics::getUserCount)
+                .containsExactly(tuple("acme", 1), tuple("globex", 2));
+    }
+
+    @Test
+    void shouldThrowExceptionWhenUserQuotaIsExceeded() {
+        TenantUserRepository acme = tenants.register("acme", TenantQuota.of(2, Long.MAX_VALUE));
+        acme.add(givenUserAlaza());
+
+        assertThatExceptionOfType(QuotaExceededException.class)
+                .isThrownBy(() -> acme.addAll(List.of(givenUserBako(), givenUserAminou())))
+                .withMessage("User quota exceeded for tenant acme!");
+        acme.add(givenUserBako());
+        assertThatExceptionOfType(QuotaExceededException.class)
+                .isThrownBy(() -> acme.add(givenUserAminou()));
+
+        assertThat(acme.count()).isEqualTo(2);
+        assertThat(acme.metrics().getRejectedWrites()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldReleaseBytesOfDeletedUsers() {
+        long userBytes = UserRepositoryImpl.estimatedBytes(givenUserAlaza());
+        TenantUserRepository acme = tenants.register("acme", TenantQuota.of(10, userBytes + 8));
+        User alaza = acme.add(givenUserAlaza());
+
+        assertThatExceptionOfType(QuotaExceededException.class)
+                .isThrownBy(() -> acme.add(givenUserBako()))
+                .withMessage("Byte quota exceeded for tenant acme!");
+        assertThat(acme.metrics().getUsedBytes()).isEqualTo(userBytes);
+
+        acme.deleteByEmail(alaza.getEmail());
+        acme.add(givenUserBako());
+
+        assertThat(acme.metrics().getUsedBytes()).isEqualTo(UserRepositoryImpl.estimatedBytes(givenUserBako()));
+    }
+
+    @Test
+    void shouldServeOtherTenantsWhileOneIsImporting() throws InterruptedException {
+        TenantUserRepository acme = tenants.register("acme", TenantQuota.unlimited());
+        UserRepository globex = tenants.register("globex", TenantQuota.unlimited());
+        CountDownLatch importing = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread importer = new Thread(() -> {
+            synchronized (acme) {
+                importing.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        importer.start();
+        importing.await();
+
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+                User alaza = globex.add(givenUserAlaza());
+                assertThat(globex.findByEmail(alaza.getEmail())).contains(alaza);
+            });
+        } finally {
+            done.countDown();
+            importer.join();
+        }
+    }
+
+    @Test
+    void shouldThrowExceptionWhenTenantIsUnknown() {
+        tenants.register("acme", TenantQuota.unlimited());
+        tenants.unregister("acme");
+
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> tenants.forTenant("acme"))
+                .withMessage("Unknown tenant specified!");
+    }
+
+    private User givenUserAlaza() {
+        return new User("alaza", "alaza@alaza.com");
+    }
+
+    private User givenUserBako() {
+        return new User("bako", "bako@bako.com");
+    }
+
+    private User givenUserAminou() {
+        return new User("aminou", "aminou@aminou.com");
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
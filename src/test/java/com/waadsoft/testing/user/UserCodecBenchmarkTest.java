@@ -0,0 +1,197 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares {@link UserCodec} with Java serialization and JSON text on size, round-trip time, and allocation of the
+ * in-place comparisons. Run with {@code mvn test -Pbenchmark}; the figures are printed, not asserted.
+ * <p>
+ * The build has no JSON library, so the JSON figures come from a minimal hand-written writer and reader for the three
+ * fields. A general-purpose library does more work per user, so they are a lower bound.
+ */
+@Tag("benchmark")
+class UserCodecBenchmarkTest {
+
+    private static final int USERS = 10_000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 50;
+
+    private final List<User> users = givenUsers();
+
+    @Test
+    void shouldReportCodecAgainstSerializationAndJson() {
+        List<String> results = new ArrayList<>();
+        results.add(measure("UserCodec", this::encodeWithCodec, this::decodeWithCodec));
+        results.add(measure("Java serialization", this::serialize, this::deserialize));
+        results.add(measure("JSON text", this::writeJson, this::readJson));
+        results.add(measureInPlaceComparisons());
+
+        results.forEach(System.out::println);
+        assertThat(results).hasSize(4);
+    }
+
+    private String measure(String name, Function<User, byte[]> encoder, Function<byte[], User> decoder) {
+        long bytes = users.stream().mapToLong(user -> encoder.apply(user).length).sum();
+        roundTrips(encoder, decoder, WARMUP_ROUNDS);
+        long elapsed = roundTrips(encoder, decoder, MEASURED_ROUNDS);
+        return String.format("%s: %.1f bytes/user, %.0f ns/round trip", name, (double) bytes / USERS,
+                (double) elapsed / ((long) MEASURED_ROUNDS * USERS));
+    }
+
+    private long roundTrips(Function<User, byte[]> encoder, Function<byte[], User> decoder, int rounds) {
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (User user : users) {
+                checksum += decoder.apply(encoder.apply(user)).getUserId();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        assertThat(checksum).isEqualTo(rounds * ((long) USERS * (USERS + 1) / 2));
+        return elapsed;
+    }
+
+    private String measureInPlaceComparisons() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(users.stream().mapToInt(UserCodec::encodedLength).sum());
+        users.forEach(user -> UserCodec.encode(user, buffer));
+        UserCodec.View view = new UserCodec.View();
+        compareInPlace(buffer, view, WARMUP_ROUNDS);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        int matches = compareInPlace(buffer, view, MEASURED_ROUNDS);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertThat(matches).isEqualTo(MEASURED_ROUNDS * USERS * 2);
+        long comparisons = (long) MEASURED_ROUNDS * USERS * 2;
+        return String.format("UserCodec.View equals: %.0f ns/comparison, %.2f bytes allocated/comparison",
+                (double) elapsed / comparisons, (double) allocated / comparisons);
+    }
+
+    private int compareInPlace(ByteBuffer buffer, UserCodec.View view, int rounds) {
+        int matches = 0;
+        for (int round = 0; round < rounds; round++) {
+            int offset = 0;
+            for (User user : users) {
+                view.wrap(buffer, offset);
+                matches += view.usernameEquals(user.getUsername()) ? 1 : 0;
+                matches += view.emailEquals(user.getEmail()) ? 1 : 0;
+                offset += view.encodedLength();
+            }
+        }
+        return matches;
+    }
+
+    /*---------------------------------------------------------
+    |                     F O R M A T S                       |
+    ==========================================================*/
+    private byte[] encodeWithCodec(User user) {
+        ByteBuffer buffer = ByteBuffer.allocate(UserCodec.encodedLength(user));
+        UserCodec.encode(user, buffer);
+        return buffer.array();
+    }
+
+    private User decodeWithCodec(byte[] encoded) {
+        return UserCodec.decode(ByteBuffer.wrap(encoded));
+    }
+
+    private byte[] serialize(User user) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(new SerializableUser(user.getUserId(), user.getUsername(), user.getEmail()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private User deserialize(byte[] serialized) {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            SerializableUser user = (SerializableUser) input.readObject();
+            return new User(user.userId, user.username, user.email);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Field values are plain ASCII without quotes or backslashes, so nothing needs escaping.
+     */
+    private byte[] writeJson(User user) {
+        return ("{\"userId\":" + user.getUserId() + ",\"username\":\"" + user.getUsername()
+                + "\",\"email\":\"" + user.getEmail() + "\"}").getBytes(UTF_8);
+    }
+
+    private User readJson(byte[] json) {
+        String text = new String(json, UTF_8);
+        int userId = Integer.parseInt(text.substring(text.indexOf(':') + 1, text.indexOf(',')));
+        return new User(userId, stringField(text, "\"username\":\""), stringField(text, "\"email\":\""));
+    }
+
+    private String stringField(String text, String key) {
+        int start = text.indexOf(key) + key.length();
+        return text.substring(start, text.indexOf('"', start));
+    }
+
+    private static List<User> givenUsers() {
+        List<User> users = new ArrayList<>(USERS);
+        for (int i = 1; i <= USERS; i++) {
+            users.add(new User(i, "user" + i, "user" + i + "@example" + (i % 100) + ".com"));
+        }
+        return users;
+    }
+
+    private static final class SerializableUser implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Integer userId;
+        private final String username;
+        private final String email;
+
+        private SerializableUser(Integer userId, String username, String email) {
+            this.userId = userId;
+            this.username = username;
+            this.email = email;
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,130 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class UserCodecTest {
+
+    @Test
+    void shouldRoundTripUserThroughHeapBuffer() {
+        User user = new User(42, "alaza", "alaza@alaza.com");
+        ByteBuffer buffer = ByteBuffer.allocate(UserCodec.encodedLength(user));
+
+        UserCodec.encode(user, buffer);
+        buffer.flip();
+        User decoded = UserCodec.decode(buffer);
+
+        assertSameUser(decoded, user);
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void shouldRoundTripUsersThroughDirectBuffer() {
+        User user1 = new User(Integer.MIN_VALUE, "bakó", "bakó@bako.com");
+        User user2 = new User(null, "aminou😀", "aminou@aminou.com");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(UserCodec.encodedLength(user1) + UserCodec.encodedLength(user2));
+
+        UserCodec.encode(user1, buffer);
+        UserCodec.encode(user2, buffer);
+        buffer.flip();
+
+        assertSameUser(UserCodec.decode(buffer), user1);
+        assertSameUser(UserCodec.decode(buffer), user2);
+    }
+
+    @Test
+    void shouldReplaceLoneSurrogateWithoutCorruptingNextUser() {
+        User user1 = new User(1, "a\uD800b", "alaza@alaza.com");
+        User user2 = new User(2, "bako", "bako@bako.com");
+        ByteBuffer buffer = ByteBuffer.allocate(UserCodec.encodedLength(user1) + UserCodec.encodedLength(user2));
+
+        UserCodec.encode(user1, buffer);
+        UserCodec.encode(user2, buffer);
+        buffer.flip();
+
+        assertSameUser(UserCodec.decode(buffer), new User(1, "a?b", "alaza@alaza.com"));
+        assertSameUser(UserCodec.decode(buffer), user2);
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void shouldCompareFieldsInPlaceWithView() {
+        User user = new User(7, "alaza", "alaza@alaza.com");
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.position(10);
+        UserCodec.encode(user, buffer);
+
+        UserCodec.View view = new UserCodec.View().wrap(buffer, 10);
+
+        assertThat(view.getUserId()).isEqualTo(7);
+        assertThat(view.usernameEquals("alaza")).isTrue();
+        assertThat(view.usernameEquals("alaz")).isFalse();
+        assertThat(view.emailEquals("alaza@alaza.com")).isTrue();
+        assertThat(view.emailEquals(null)).isFalse();
+        assertThat(view.encodedLength()).isEqualTo(UserCodec.encodedLength(user));
+    }
+
+    @Test
+    void shouldCompareNonAsciiFieldsInPlaceWithView() {
+        User user = new User(7, "bakó😀", "bakó@bako.com");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(UserCodec.encodedLength(user));
+        UserCodec.encode(user, buffer);
+
+        UserCodec.View view = new UserCodec.View().wrap(buffer, 0);
+
+        assertThat(view.usernameEquals("bakó😀")).isTrue();
+        assertThat(view.usernameEquals("bakò😀")).isFalse();
+        assertThat(view.usernameEquals("bakó")).isFalse();
+        assertThat(view.usernameEquals("bakó😁")).isFalse();
+        assertThat(view.emailEquals("bakó@bako.com")).isTrue();
+        assertThat(view.emailEquals("bako@bako.com")).isFalse();
+    }
+
+    @Test
+    void shouldNotMatchLoneSurrogateAgainstItsReplacement() {
+        User user = new User(1, "a\uD800b", "alaza@alaza.com");
+        ByteBuffer buffer = ByteBuffer.allocate(UserCodec.encodedLength(user));
+        UserCodec.encode(user, buffer);
+
+        UserCodec.View view = new UserCodec.View().wrap(buffer, 0);
+
+        assertThat(view.usernameEquals("a\uD800b")).isFalse();
+        assertThat(view.usernameEquals("a?b")).isTrue();
+    }
+
+    @Test
+    void shouldThrowExceptionWhenUnsupportedVersion() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{99, 0, 0, 0});
+
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> UserCodec.decode(buffer))
+                .withMessageContaining("Unsupported user format version");
+    }
+
+    private void assertSameUser(User actual, User expected) {
+        assertThat(actual.getUserId()).isEqualTo(expected.getUserId());
+        assertThat(actual.getUsername()).isEqualTo(expected.getUsername());
+        assertThat(actual.getEmail()).isEqualTo(expected.getEmail());
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
@@ -0,0 +1,134 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class UserImporterTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    @Test
+    void shouldImportCsvAcrossSmallChunksAndBatches() {
+        String csv = "userId,username,email\n"
+                + "1,alaza,alaza@alaza.com\n"
+                + "2,\"bako, jr\",bako@bako.com\r\n"
+                + ",aminou,aminou@aminou.com";
+        UserRepository repository = new UserRepositoryImpl();
+
+        long imported = new UserImporter(repository, UserFormat.CSV, 32, 2, DIRECT, 2).importFrom(channelOf(csv.getBytes(UTF_8)));
+
+        assertThat(imported).isEqualTo(3);
+        assertThat(repository.findByUsername("bako, jr")).map(User::getUserId).contains(2);
+        assertThat(repository.findByEmail("aminou@aminou.com")).map(User::getUserId).contains(3);
+    }
+
+    @Test
+    void shouldKeepIdsWhenImporting() {
+        String ndjson = "{\"userId\":42,\"username\":\"alaza\",\"email\":\"alaza@alaza.com\"}\n"
+                + "{\"username\":\"bako\",\"email\":\"bako@bako.com\"}\n"
+                + "{\"userId\":7,\"username\":\"aminou\",\"email\":\"aminou@aminou.com\"}\n";
+        UserRepository repository = new UserRepositoryImpl();
+
+        long imported = new UserImporter(repository, UserFormat.NDJSON).importFrom(channelOf(ndjson.getBytes(UTF_8)));
+
+        assertThat(imported).isEqualTo(3);
+        assertThat(repository.findByIdOrNull(42)).isEqualTo(new User("alaza", "alaza@alaza.com"));
+        assertThat(repository.findByIdOrNull(7)).isEqualTo(new User("aminou", "aminou@aminou.com"));
+        assertThat(repository.findByUsername("bako")).map(User::getUserId).contains(43);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenImportedIdIsTaken() {
+        UserRepository repository = givenRepositoryWith(new User("alaza", "alaza@alaza.com"));
+        String csv = "userId,username,email\n1,bako,bako@bako.com\n";
+        UserImporter importer = new UserImporter(repository, UserFormat.CSV);
+
+        assertThatExceptionOfType(DuplicateUserException.class)
+                .isThrownBy(() -> importer.importFrom(channelOf(csv.getBytes(UTF_8))));
+        assertThat(repository.findByUsername("bako")).isEmpty();
+    }
+
+    @Test
+    void shouldRoundTripEveryFormat() {
+        for (UserFormat format : UserFormat.values()) {
+            UserRepository source = givenRepositoryWith(
+                    new User("deleted", "deleted@deleted.com"),
+                    new User("alaza", "alaza@alaza.com"),
+                    new User("ba\"ko", "bako@bako.com"),
+                    new User("aminou", "aminou@aminou.com"));
+            source.deleteByUsername("deleted");
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+            long exported = new UserExporter(source, format, 80).exportTo(Channels.newChannel(output));
+            UserRepository target = new UserRepositoryImpl();
+            long imported = new UserImporter(target, format, 96, 2, DIRECT, 3).importFrom(channelOf(output.toByteArray()));
+
+            assertThat(exported).as(format.name()).isEqualTo(3);
+            assertThat(imported).as(format.name()).isEqualTo(3);
+            assertThat(target.findAll()).as(format.name()).containsExactlyInAnyOrderElementsOf(source.findAll());
+            for (User user : source.findAll()) {
+                assertThat(target.findByIdOrNull(user.getUserId())).as(format.name()).isEqualTo(user)
+                        .extracting(User::getEmail).isEqualTo(user.getEmail());
+            }
+        }
+    }
+
+    @Test
+    void shouldThrowExceptionWhenRecordLargerThanChunk() {
+        String ndjson = "{\"userId\":1,\"username\":\"alaza\",\"email\":\"alaza@alaza.com\"}\n";
+        UserImporter importer = new UserImporter(new UserRepositoryImpl(), UserFormat.NDJSON, 16, 2, DIRECT, 1);
+
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> importer.importFrom(channelOf(ndjson.getBytes(UTF_8))))
+                .withMessageContaining("Record larger than the chunk size");
+    }
+
+    @Test
+    void shouldThrowExceptionWhenImportingDuplicateUsers() {
+        String ndjson = "{\"userId\":null,\"username\":\"alaza\",\"email\":\"alaza@alaza.com\"}\n"
+                + "{\"username\":\"alaza\",\"email\":\"other@alaza.com\"}\n";
+        UserRepository repository = new UserRepositoryImpl();
+        UserImporter importer = new UserImporter(repository, UserFormat.NDJSON);
+
+        assertThatExceptionOfType(DuplicateUserException.class)
+                .isThrownBy(() -> importer.importFrom(channelOf(ndjson.getBytes(UTF_8))));
+        assertThat(repository.count()).isEqualTo(0);
+    }
+
+    private UserRepository givenRepositoryWith(User... users) {
+        UserRepository repository = new UserRepositoryImpl();
+        repository.addAll(List.of(users));
+        return repository;
+    }
+
+    private ReadableByteChannel channelOf(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
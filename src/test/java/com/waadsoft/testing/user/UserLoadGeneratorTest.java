@@ -0,0 +1,90 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class UserLoadGeneratorTest {
+
+    @Test
+    void shouldReportLatenciesAndThroughputWhenRunAtTargetRate() {
+        UserLoadGenerator generator = new UserLoadGenerator(new UserServiceImpl(new UserRepositoryImpl()),
+                Map.of(UserLoadGenerator.Operation.GET_BY_ID, 6, UserLoadGenerator.Operation.GET_BY_EMAIL, 2,
+                        UserLoadGenerator.Operation.UPDATE, 1, UserLoadGenerator.Operation.ADD, 1),
+                KeyDistribution.zipfian(100, 0.99), 2, 2000, Duration.ofMillis(100));
+
+        LoadReport report = generator.run(Duration.ofMillis(300));
+
+        assertThat(report.getErrors()).isZero();
+        assertThat(report.getOperations()).isBetween(300L, 600L);
+        assertThat(report.getOperationsPerInterval()).hasSize(3);
+        assertThat(report.getOperationsPerInterval().stream().mapToLong(Long::longValue).sum())
+                .isEqualTo(report.getOperations());
+        assertThat(report.getResponseTimes().getPercentile(50))
+                .isLessThanOrEqualTo(report.getResponseTimes().getPercentile(99));
+        assertThat(report.getResponseTimes().getPercentile(100)).isEqualTo(report.getResponseTimes().getMax());
+    }
+
+    @Test
+    void shouldFavorLowestKeysWhenZipfian() {
+        KeyDistribution keys = KeyDistribution.zipfian(1000, 0.99);
+        SplittableRandom random = new SplittableRandom(42);
+        int[] hits = new int[1000];
+
+        for (int i = 0; i < 100_000; i++) {
+            hits[keys.next(random)]++;
+        }
+
+        assertThat(hits[0]).isGreaterThan(hits[1]).isGreaterThan(10 * hits[500]);
+    }
+
+    @Test
+    void shouldSendMostOperationsToHotKeysWhenHotspot() {
+        KeyDistribution keys = KeyDistribution.hotspot(1000, 0.1, 0.9);
+        SplittableRandom random = new SplittableRandom(42);
+        int hot = 0;
+
+        for (int i = 0; i < 100_000; i++) {
+            if (keys.next(random) < 100) {
+                hot++;
+            }
+        }
+
+        assertThat(hot / 100_000.0).isCloseTo(0.9, within(0.01));
+    }
+
+    @Test
+    void shouldKeepPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long nanos = 1; nanos <= 100_000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+
+        assertThat(histogram.getPercentile(50).toNanos()).isCloseTo(50_000_000L, within(1_600_000L));
+        assertThat(histogram.getPercentile(99).toNanos()).isCloseTo(99_000_000L, within(3_200_000L));
+        assertThat(histogram.getMax()).isEqualTo(Duration.ofMillis(100));
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
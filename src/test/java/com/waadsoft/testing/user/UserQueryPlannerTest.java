@@ -0,0 +1,130 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class UserQueryPlannerTest {
+
+    private final CountingIndexes indexes = new CountingIndexes(1_000);
+    private final UserQueryPlanner planner = new UserQueryPlanner(indexes);
+
+    @Test
+    void shouldStopReadingIdRangeWhenPageIsFull() {
+        List<User> found = planner.execute(UserQuery.where(UserQuery.idBetween(1, 900)).offset(10).limit(5));
+
+        assertThat(found).extracting(User::getUserId).containsExactly(11, 12, 13, 14, 15);
+        assertThat(indexes.resolved.get()).isEqualTo(15);
+    }
+
+    @Test
+    void shouldPageUnorderedMatchesByIdWithoutDuplicates() {
+        UserQuery query = UserQuery.where(UserQuery.idIn(List.of(900, 7, 500, 7, 3))
+                .or(UserQuery.usernameEquals("user500"))).offset(1).limit(2);
+
+        List<User> found = planner.execute(query);
+
+        assertThat(found).extracting(User::getUserId).containsExactly(7, 500);
+    }
+
+    @Test
+    void shouldPageScanMatchesById() {
+        UserQuery query = UserQuery.where(UserQuery.usernameStartsWith("user9")).offset(3).limit(4);
+
+        List<User> found = planner.execute(query);
+
+        assertThat(found).extracting(User::getUserId).containsExactly(92, 93, 94, 95);
+    }
+
+    private static final class CountingIndexes implements UserQueryPlanner.Indexes {
+
+        private final NavigableMap<Integer, User> users = new TreeMap<>();
+        private final AtomicInteger resolved = new AtomicInteger();
+
+        private CountingIndexes(int count) {
+            for (int i = count; i >= 1; i--) {
+                users.put(i, new User(i, "user" + i, "user" + i + "@example.com"));
+            }
+        }
+
+        @Override
+        public int count() {
+            return users.size();
+        }
+
+        @Override
+        public Stream<User> users() {
+            // newest first, as a hash map could return them
+            return users.descendingMap().values().stream();
+        }
+
+        @Override
+        public User findById(Integer userId) {
+            resolved.incrementAndGet();
+            return users.get(userId);
+        }
+
+        @Override
+        public User findByEmail(String email) {
+            return users.values().stream().filter(user -> user.getEmail().equals(email)).findFirst().orElse(null);
+        }
+
+        @Override
+        public User findByUsername(String username) {
+            return users.values().stream().filter(user -> user.getUsername().equals(username)).findFirst().orElse(null);
+        }
+
+        @Override
+        public Collection<Integer> idsInRange(int from, int to) {
+            return users.subMap(from, true, to, true).keySet();
+        }
+
+        @Override
+        public Collection<Integer> idsByEmailDomain(String domain) {
+            return users.values().stream()
+                    .filter(user -> inEmailDomain(user, domain))
+                    .map(User::getUserId)
+                    .collect(Collectors.toList());
+        }
+
+        @Override
+        public boolean emailEquals(User user, String email) {
+            return user.getEmail().equals(email);
+        }
+
+        @Override
+        public boolean usernameEquals(User user, String username) {
+            return user.getUsername().equals(username);
+        }
+
+        @Override
+        public boolean inEmailDomain(User user, String domain) {
+            return user.getEmail().endsWith("@" + domain);
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
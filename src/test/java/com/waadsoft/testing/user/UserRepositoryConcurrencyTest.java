@@ -0,0 +1,440 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Hammers every {@link UserRepository} implementation from several threads, then checks that IDs, emails and
+ * usernames stayed unique and that every index agrees with the stored users. Small histories are also checked for
+ * linearizability against a sequential model of the repository.
+ */
+class UserRepositoryConcurrencyTest {
+
+    private static final int THREADS = 4;
+    private static final String[] USERNAMES = {"alaza", "bako", "aminou"};
+
+    static Stream<Arguments> repositories() {
+        return Stream.of(
+                Arguments.of("UserRepositoryImpl", (Supplier<Fixture>) () -> Fixture.of(new UserRepositoryImpl())),
+                Arguments.of("UserRepositoryImpl (case folding)", (Supplier<Fixture>) () -> Fixture.of(
+                        new UserRepositoryImpl(UserKeyNormalizer.of(UserKeyNormalizer.Option.CASE_FOLDING)))),
+                Arguments.of("ForwardingUserRepository", (Supplier<Fixture>) () -> Fixture.of(
+                        DecoratorChain.<UserRepository>of(new UserRepositoryImpl())
+                                .with(target -> new ForwardingUserRepository(target) {
+                                })
+                                .build())),
+                Arguments.of("JfrUserRepository", (Supplier<Fixture>) () -> Fixture.of(
+                        new JfrUserRepository(new UserRepositoryImpl()))),
+                Arguments.of("TenantUserRepository", (Supplier<Fixture>) () -> Fixture.of(
+                        new TenantRepositories().register("acme", TenantQuota.of(1_000, Long.MAX_VALUE)))),
+                Arguments.of("ReplicaUserRepository", (Supplier<Fixture>) Fixture::replicated));
+    }
+
+    /**
+     * Only the repositories that serve reads from the instance they write to; replicas are eventually consistent by
+     * design.
+     */
+    static Stream<Arguments> linearizableRepositories() {
+        return repositories().filter(arguments -> !"ReplicaUserRepository".equals(arguments.get()[0]));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("repositories")
+    void shouldAddEachKeyOnceWhenAddingConcurrently(String name, Supplier<Fixture> fixtures) throws Exception {
+        Fixture fixture = fixtures.get();
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger duplicates = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < 200; i++) {
+                String username = "user" + i;
+                try {
+                    fixture.writes.add(new User(username, username + "@example.com"));
+                    added.incrementAndGet();
+                } catch (DuplicateUserException e) {
+                    duplicates.incrementAndGet();
+                }
+            }
+        });
+        fixture.settle();
+
+        assertThat(added.get()).isEqualTo(200);
+        assertThat(duplicates.get()).isEqualTo(200 * (THREADS - 1));
+        assertConsistent(fixture.reads);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("repositories")
+    void shouldKeepIndexesConsistentUnderMixedLoad(String name, Supplier<Fixture> fixtures) throws Exception {
+        Fixture fixture = fixtures.get();
+        ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<>();
+
+        runConcurrently(thread -> {
+            SplittableRandom random = new SplittableRandom(thread);
+            for (int i = 0; i < 2_000; i++) {
+                String username = "user" + random.nextInt(50);
+                String email = username + "@example" + random.nextInt(3) + ".com";
+                try {
+                    switch (random.nextInt(6)) {
+                        case 0:
+                            fixture.writes.add(new User(username, email));
+                            break;
+                        case 1:
+                            fixture.writes.findByUsername(username)
+                                    .ifPresent(user -> fixture.writes.update(new User(user.getUserId(), username, email)));
+                            break;
+                        case 2:
+                            fixture.writes.deleteByUsername(username);
+                            break;
+                        case 3:
+                            fixture.writes.deleteByEmail(email);
+                            break;
+                        default:
+                            fixture.reads.findByUsername(username)
+                                    .filter(user -> !user.getUsername().equalsIgnoreCase(username))
+                                    .ifPresent(user -> violations.add("findByUsername(" + username + ") = " + user));
+                            fixture.reads.findByEmail(email)
+                                    .filter(user -> !user.getEmail().equalsIgnoreCase(email))
+                                    .ifPresent(user -> violations.add("findByEmail(" + email + ") = " + user));
+                    }
+                } catch (DuplicateUserException | UserNotFoundException e) {
+                    // expected when another thread got there first
+                }
+            }
+        });
+        fixture.settle();
+
+        assertThat(violations).isEmpty();
+        assertConsistent(fixture.reads);
+    }
+
+    @Test
+    void shouldNotExceedTenantQuotaWhenAddingConcurrently() throws Exception {
+        TenantUserRepository tenant = new TenantRepositories().register("acme", TenantQuota.of(50, Long.MAX_VALUE));
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < 100; i++) {
+                String username = "user" + thread + "-" + i;
+                try {
+                    tenant.add(new User(username, username + "@example.com"));
+                    added.incrementAndGet();
+                } catch (QuotaExceededException e) {
+                    rejected.incrementAndGet();
+                }
+            }
+        });
+
+        assertThat(added.get()).isEqualTo(50);
+        assertThat(rejected.get()).isEqualTo(THREADS * 100 - 50);
+        TenantMetrics metrics = tenant.metrics();
+        assertThat(metrics.getUserCount()).isEqualTo(50);
+        assertThat(metrics.getRejectedWrites()).isEqualTo(rejected.get());
+        assertThat(metrics.getUsedBytes()).isEqualTo(tenant.findAll().stream()
+                .mapToLong(UserRepositoryImpl::estimatedBytes)
+                .sum());
+        assertConsistent(tenant);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("linearizableRepositories")
+    void shouldProduceLinearizableHistories(String name, Supplier<Fixture> fixtures) throws Exception {
+        for (int round = 0; round < 100; round++) {
+            UserRepository repository = fixtures.get().writes;
+            ConcurrentLinkedQueue<Operation> history = new ConcurrentLinkedQueue<>();
+            int seed = round;
+
+            runConcurrently(thread -> {
+                SplittableRandom random = new SplittableRandom(seed * THREADS + thread);
+                for (int i = 0; i < 4; i++) {
+                    history.add(Operation.invoke(repository, random.nextInt(3), USERNAMES[random.nextInt(USERNAMES.length)]));
+                }
+            });
+
+            assertThat(isLinearizable(new ArrayList<>(history))).as("history %s", history).isTrue();
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("linearizableRepositories")
+    void shouldResolveExactlyOneEmailWhileEmailIsUpdated(String name, Supplier<Fixture> fixtures) throws Exception {
+        UserRepository repository = fixtures.get().writes;
+        ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<>();
+
+        for (int round = 0; round < 200; round++) {
+            String username = "alaza" + round;
+            String oldEmail = username + "@old.com";
+            String newEmail = username + "@new.com";
+            Integer userId = repository.add(new User(username, oldEmail)).getUserId();
+
+            runConcurrently(thread -> {
+                if (thread == 0) {
+                    repository.update(new User(userId, username, newEmail));
+                    return;
+                }
+                while (true) {
+                    User old = repository.findByEmailOrNull(oldEmail);
+                    User current = repository.findByEmailOrNull(newEmail);
+                    if (old == null && current == null) {
+                        violations.add(username + ": both emails missed");
+                    }
+                    if (old != null && !old.getEmail().equals(oldEmail)) {
+                        violations.add(oldEmail + " resolved to " + old);
+                    }
+                    if (current != null) {
+                        if (repository.findByEmail(oldEmail).isPresent()) {
+                            violations.add(username + ": old email hit after the new one");
+                        }
+                        return;
+                    }
+                }
+            });
+        }
+
+        assertThat(violations).isEmpty();
+    }
+
+    /*---------------------------------------------------------
+    |                    I N V A R I A N T S                  |
+    ==========================================================*/
+    private void assertConsistent(UserRepository repository) {
+        List<User> users = repository.findAll();
+
+        assertThat(repository.count()).isEqualTo(users.size());
+        assertThat(users.stream().map(User::getUserId).distinct()).hasSameSizeAs(users);
+        assertThat(users.stream().map(user -> user.getEmail().toLowerCase()).distinct()).hasSameSizeAs(users);
+        assertThat(users.stream().map(user -> user.getUsername().toLowerCase()).distinct()).hasSameSizeAs(users);
+        for (User user : users) {
+            assertSameUser(repository.findById(user.getUserId()), user);
+            assertSameUser(repository.findByEmail(user.getEmail()), user);
+            assertSameUser(repository.findByUsername(user.getUsername()), user);
+        }
+        RepositoryStats stats = repository.stats();
+        assertThat(stats.getIndex("email").getEntries()).isEqualTo(users.size());
+        assertThat(stats.getIndex("username").getEntries()).isEqualTo(users.size());
+    }
+
+    /**
+     * {@link User#equals(Object)} only compares usernames, so an index resolving to another user with the same
+     * username would go unnoticed.
+     */
+    private void assertSameUser(Optional<User> found, User expected) {
+        assertThat(found).isPresent();
+        assertThat(found.get()).extracting(User::getUserId, User::getUsername, User::getEmail)
+                .containsExactly(expected.getUserId(), expected.getUsername(), expected.getEmail());
+    }
+
+    /*---------------------------------------------------------
+    |              L I N E A R I Z A B I L I T Y              |
+    ==========================================================*/
+
+    /**
+     * Wing and Gong's search: repeatedly linearize an operation that no pending one returned before, replaying it on
+     * the sequential model, and backtrack when the model disagrees with what the repository returned.
+     */
+    private boolean isLinearizable(List<Operation> history) {
+        return linearize(history, 0L, new TreeMap<>(), new HashSet<>());
+    }
+
+    private boolean linearize(List<Operation> history, long linearized, TreeMap<String, Integer> model,
+                              Set<String> visited) {
+        if (Long.bitCount(linearized) == history.size()) {
+            return true;
+        }
+        if (!visited.add(linearized + ":" + model)) {
+            return false;
+        }
+        long firstReturn = Long.MAX_VALUE;
+        for (int index = 0; index < history.size(); index++) {
+            if ((linearized & (1L << index)) == 0) {
+                firstReturn = Math.min(firstReturn, history.get(index).returned);
+            }
+        }
+        for (int index = 0; index < history.size(); index++) {
+            Operation operation = history.get(index);
+            if ((linearized & (1L << index)) != 0 || operation.invoked > firstReturn) {
+                continue;
+            }
+            TreeMap<String, Integer> next = new TreeMap<>(model);
+            if (operation.outcome.equals(operation.apply(next))
+                    && linearize(history, linearized | (1L << index), next, visited)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One completed call on a user whose email is derived from its username. The model maps usernames to IDs, and
+     * keeps the highest ID handed out so far under {@link #HIGHEST_ID}.
+     */
+    private static final class Operation {
+        private static final String HIGHEST_ID = "#highestId";
+        private static final int ADD = 0;
+        private static final int DELETE = 1;
+
+        private final int type;
+        private final String username;
+        private final long invoked;
+        private final long returned;
+        private final String outcome;
+
+        private Operation(int type, String username, long invoked, long returned, String outcome) {
+            this.type = type;
+            this.username = username;
+            this.invoked = invoked;
+            this.returned = returned;
+            this.outcome = outcome;
+        }
+
+        static Operation invoke(UserRepository repository, int type, String username) {
+            long invoked = System.nanoTime();
+            String outcome;
+            try {
+                if (type == ADD) {
+                    outcome = "added " + repository.add(new User(username, username + "@example.com")).getUserId();
+                } else if (type == DELETE) {
+                    repository.deleteByUsername(username);
+                    outcome = "deleted";
+                } else {
+                    outcome = repository.findByUsername(username).map(user -> "found " + user.getUserId()).orElse("none");
+                }
+            } catch (DuplicateUserException e) {
+                outcome = "duplicate";
+            } catch (UserNotFoundException e) {
+                outcome = "missing";
+            }
+            return new Operation(type, username, invoked, System.nanoTime(), outcome);
+        }
+
+        /**
+         * Runs the operation on the sequential model: as in the repository, IDs are never reused.
+         */
+        String apply(Map<String, Integer> model) {
+            Integer userId = model.get(username);
+            if (type == ADD) {
+                if (userId != null) {
+                    return "duplicate";
+                }
+                int next = model.getOrDefault(HIGHEST_ID, 0) + 1;
+                model.put(HIGHEST_ID, next);
+                model.put(username, next);
+                return "added " + next;
+            }
+            if (type == DELETE) {
+                return model.remove(username) == null ? "missing" : "deleted";
+            }
+            return userId == null ? "none" : "found " + userId;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[%d..%d] %s(%s) -> %s", invoked, returned,
+                    type == ADD ? "add" : type == DELETE ? "delete" : "find", username, outcome);
+        }
+    }
+
+    /*---------------------------------------------------------
+    |                      H A R N E S S                      |
+    ==========================================================*/
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    private void runConcurrently(Worker worker) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int index = thread;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    worker.run(index);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Where a test writes, and where it reads back. They differ for replicas, which only accept replicated writes.
+     */
+    private static final class Fixture {
+        private final UserRepository writes;
+        private final UserRepository reads;
+        private final Runnable settle;
+
+        private Fixture(UserRepository writes, UserRepository reads, Runnable settle) {
+            this.writes = writes;
+            this.reads = reads;
+            this.settle = settle;
+        }
+
+        static Fixture of(UserRepository repository) {
+            return new Fixture(repository, repository, () -> {
+            });
+        }
+
+        static Fixture replicated() {
+            // retains every change of a test, so that a shipper falling behind under load still catches up
+            UserRepository leaderRepository = new UserRepositoryImpl(1 << 14);
+            LoopbackReplicationTransport transport = new LoopbackReplicationTransport();
+            ReplicaUserRepository replica = new ReplicaUserRepository(new UserRepositoryImpl(), Duration.ofMinutes(1));
+            transport.connect(replica);
+            ReplicationLeader leader = new ReplicationLeader(leaderRepository, transport);
+            return new Fixture(leaderRepository, replica,
+                    () -> replica.awaitSequence(leader.lastSequence(), Duration.ofSeconds(10)));
+        }
+
+        void settle() {
+            settle.run();
+        }
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
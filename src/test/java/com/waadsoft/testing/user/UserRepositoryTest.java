@@ -3,13 +3,20 @@ package com.waadsoft.testing.user;
 import org.assertj.core.api.ThrowableAssert;
 import org.junit.jupiter.api.Test;
 
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
 /**
  * @author Alassani ABODJI <abodjialassani[at]gmail.com>
@@ -92,6 +99,17 @@ class UserRepositoryTest {
         assertThat(updatedUser.getUsername()).isEqualTo(user.getUsername());
     }
 
+    @Test
+    void shouldShareUnchangedStringsWhenUpdating() {
+        User user = userRepository.add(givenUserAlaza());
+        String sameUsername = new String(user.getUsername());
+
+        User updatedUser = userRepository.update(new User(user.getUserId(), sameUsername, "modified.user@example.com"));
+
+        assertThat(updatedUser.getUsername()).isSameAs(user.getUsername());
+        assertThat(userRepository.findByIdOrNull(user.getUserId())).isSameAs(updatedUser);
+    }
+
     @Test
     void shouldThrowExceptionWhenUpdateWithInvalidUser() {
         User user = null;
@@ -108,6 +126,43 @@ class UserRepositoryTest {
         assertExceptionThrown(UserNotFoundException.class, () -> userRepository.update(user), message);
     }
 
+    @Test
+    void shouldMoveIndexEntriesWhenUpdatingEmailAndUsername() {
+        User user = userRepository.add(givenUserAlaza());
+
+        User updatedUser = userRepository.update(new User(user.getUserId(), "baba.alaza", "baba.alaza@example.com"));
+
+        assertThat(userRepository.findByEmail("alaza@alaza.com")).isEmpty();
+        assertThat(userRepository.findByUsername("alaza")).isEmpty();
+        assertThat(userRepository.findByEmail("baba.alaza@example.com")).contains(updatedUser);
+        assertThat(userRepository.findByUsername("baba.alaza")).contains(updatedUser);
+        assertThat(userRepository.add(givenUserAlaza()).getEmail()).isEqualTo("alaza@alaza.com");
+    }
+
+    @Test
+    void shouldThrowExceptionWhenUpdatingToEmailOfAnotherUser() {
+        User alaza = userRepository.add(givenUserAlaza());
+        User bako = userRepository.add(givenUserBako());
+        String message = "User already exists";
+
+        assertExceptionThrown(DuplicateUserException.class,
+                () -> userRepository.update(new User(bako.getUserId(), bako.getUsername(), alaza.getEmail())), message);
+        assertThat(userRepository.findByEmail(alaza.getEmail())).contains(alaza);
+        assertThat(userRepository.findById(bako.getUserId())).contains(bako);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenUpdatingToUsernameOfAnotherUser() {
+        User alaza = userRepository.add(givenUserAlaza());
+        User bako = userRepository.add(givenUserBako());
+        String message = "User already exists";
+
+        assertExceptionThrown(DuplicateUserException.class,
+                () -> userRepository.update(new User(bako.getUserId(), alaza.getUsername(), bako.getEmail())), message);
+        assertThat(userRepository.findByUsername(alaza.getUsername())).contains(alaza);
+        assertThat(userRepository.findByUsername(bako.getUsername())).contains(bako);
+    }
+
     @Test
     void shouldFindByEmailWhenUserExists() {
         User user = givenUserAlaza();
@@ -130,6 +185,100 @@ class UserRepositoryTest {
         assertSameUsername(actual, user.getUsername());
     }
 
+    @Test
+    void shouldFindOrNullWhenUserExists() {
+        User user = userRepository.add(givenUserAlaza());
+
+        assertThat(userRepository.findByIdOrNull(user.getUserId())).isSameAs(user);
+        assertThat(userRepository.findByEmailOrNull(user.getEmail())).isSameAs(user);
+        assertThat(userRepository.findByUsernameOrNull(user.getUsername())).isSameAs(user);
+    }
+
+    @Test
+    void shouldFindOrNullWhenIdsAreSparse() {
+        User dense = userRepository.add(givenUserAlaza());
+        User sparse = userRepository.restore(new User(5_000_000, "sparse.user", "sparse.user@example.com"));
+        User negative = userRepository.restore(new User(-3, "negative.user", "negative.user@example.com"));
+
+        userRepository.deleteById(dense.getUserId());
+
+        assertThat(userRepository.findByIdOrNull(dense.getUserId())).isNull();
+        assertThat(userRepository.findByIdOrNull(5_000_000)).isSameAs(sparse);
+        assertThat(userRepository.findByIdOrNull(-3)).isSameAs(negative);
+        assertThat(userRepository.findByIdOrNull(4_999_999)).isNull();
+    }
+
+    @Test
+    void shouldNotAllocateWhenFindingByIdOrNull() {
+        List<User> added = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            added.add(userRepository.add(new User("user." + i, "user." + i + "@example.com")));
+        }
+        assertThat(userRepository.findByIdOrNull(added.get(2_999).getUserId())).isSameAs(added.get(2_999));
+        int lookups = 200_000;
+        int found = findByIdOrNull(lookups);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        found += findByIdOrNull(lookups);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // boxing would take 16 bytes per lookup, the rest is noise from the JVM itself
+        assertThat(found).isEqualTo(2 * lookups);
+        assertThat(allocated).isLessThan(lookups);
+    }
+
+    private int findByIdOrNull(int lookups) {
+        int found = 0;
+        for (int i = 0; i < lookups; i++) {
+            // IDs above 127 are outside the Integer cache, so boxing them would allocate
+            if (userRepository.findByIdOrNull(128 + i % 2_800) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Test
+    void shouldReturnNullWhenFindOrNullWithUnknownUser() {
+        userRepository.add(givenUserAlaza());
+
+        assertThat(userRepository.findByIdOrNull(1000)).isNull();
+        assertThat(userRepository.findByEmailOrNull(null)).isNull();
+        assertThat(userRepository.findByUsernameOrNull("azllammzmmzmm")).isNull();
+    }
+
+    @Test
+    void shouldMatchExactlyByDefault() {
+        userRepository.add(givenUserAlaza());
+
+        assertThat(userRepository.findByEmail("ALAZA@alaza.com")).isEmpty();
+        assertThat(userRepository.add(new User("ALAZA", "ALAZA@alaza.com")).getUserId()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldFindByNormalizedKeysWhenNormalizerConfigured() {
+        UserRepository repository = new UserRepositoryImpl(UserKeyNormalizer.of(
+                UserKeyNormalizer.Option.NFKC, UserKeyNormalizer.Option.CASE_FOLDING, UserKeyNormalizer.Option.GMAIL_ADDRESSING));
+        User user = repository.add(new User("Alaza", "Alaza.Baba+news@GoogleMail.com"));
+
+        assertThat(repository.findByEmail("alazababa@gmail.com")).containsSame(user);
+        assertThat(repository.findByUsernameOrNull("ＡＬＡＺＡ")).isSameAs(user);
+        assertThat(repository.findAllByEmail(List.of("ALAZABABA@gmail.com", "alaza.baba@gmail.com"))).containsExactly(user);
+        assertThat(user.getEmail()).isEqualTo("Alaza.Baba+news@GoogleMail.com");
+    }
+
+    @Test
+    void shouldThrowExceptionWhenAddingNormalizedDuplicate() {
+        UserRepository repository = new UserRepositoryImpl(UserKeyNormalizer.of(UserKeyNormalizer.Option.CASE_FOLDING));
+        repository.add(givenUserAlaza());
+        String message = "User already exists";
+
+        assertExceptionThrown(DuplicateUserException.class, () -> repository.add(new User("baba.alaza", "Alaza@Alaza.com")), message);
+        assertExceptionThrown(DuplicateUserException.class, () -> repository.add(new User("ALAZA", "other@alaza.com")), message);
+    }
+
     @Test
     void shouldCountWhenUsersExist() {
         User user1 = givenUserAlaza();
@@ -522,11 +671,549 @@ class UserRepositoryTest {
         assertExceptionThrown(IllegalArgumentException.class, () -> userRepository.deleteAllByUsername(usernames), message);
     }
 
+    @Test
+    void shouldFindAllByEmailDomainWhenUsersExist() {
+        User user1 = userRepository.add(new User("alaza", "alaza@example.com"));
+        User user2 = userRepository.add(new User("bako", "bako@EXAMPLE.com"));
+        User user3 = userRepository.add(givenUserAminou());
+
+        List<User> actual = userRepository.findAllByEmailDomain("Example.COM", 0, 10);
+
+        assertThat(actual).isNotEmpty()
+                .hasSize(2)
+                .containsOnly(user1, user2)
+                .doesNotContain(user3);
+    }
+
+    @Test
+    void shouldPageFindAllByEmailDomainInIdOrder() {
+        User user1 = userRepository.add(new User("alaza", "alaza@example.com"));
+        User user2 = userRepository.add(new User("bako", "bako@example.com"));
+        User user3 = userRepository.add(new User("aminou", "aminou@example.com"));
+
+        assertThat(userRepository.findAllByEmailDomain("example.com", 0, 2)).containsExactly(user1, user2);
+        assertThat(userRepository.findAllByEmailDomain("example.com", 1, 2)).containsExactly(user3);
+        assertThat(userRepository.findAllByEmailDomain("example.com", 2, 2)).isEmpty();
+    }
+
+    @Test
+    void shouldThrowExceptionWhenFindAllByEmailDomainWithInvalidPage() {
+        String message = "Invalid page specified";
+
+        assertExceptionThrown(IllegalArgumentException.class, () -> userRepository.findAllByEmailDomain("example.com", -1, 10), message);
+        assertExceptionThrown(IllegalArgumentException.class, () -> userRepository.findAllByEmailDomain("example.com", 0, 0), message);
+    }
+
+    @Test
+    void shouldCountByEmailDomainAfterUpdateAndDelete() {
+        User user1 = userRepository.add(new User("alaza", "alaza@example.com"));
+        User user2 = userRepository.add(new User("bako", "bako@example.com"));
+
+        userRepository.update(new User(user1.getUserId(), user1.getUsername(), "alaza@other.com"));
+        userRepository.deleteById(user2.getUserId());
+
+        assertThat(userRepository.countByEmailDomain("example.com")).isEqualTo(0);
+        assertThat(userRepository.countByEmailDomain("OTHER.com")).isEqualTo(1);
+        assertThat(userRepository.countByEmailDomain(null)).isEqualTo(0);
+    }
+
+    @Test
+    void shouldAddAllWhenGivenValidUsers() {
+        User user1 = givenUserAlaza();
+        User user2 = givenUserBako();
+
+        List<User> added = userRepository.addAll(List.of(user1, user2));
+
+        assertThat(added).extracting(User::getUserId).containsExactly(1, 2);
+        assertThat(userRepository.findAll()).containsOnly(user1, user2);
+    }
+
+    @Test
+    void shouldAddNothingWhenAddAllWithDuplicateUsers() {
+        userRepository.add(givenUserAlaza());
+        User duplicate = new User("baba.alaza", "alaza@alaza.com");
+        String message = "User already exists";
+
+        assertExceptionThrown(DuplicateUserException.class, () -> userRepository.addAll(List.of(givenUserBako(), duplicate)), message);
+        assertExceptionThrown(DuplicateUserException.class, () -> userRepository.addAll(List.of(givenUserBako(), givenUserBako())), message);
+        assertThat(userRepository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenAddAllWithEmptyCollection() {
+        String message = "Invalid collection";
+
+        assertExceptionThrown(IllegalArgumentException.class, () -> userRepository.addAll(List.of()), message);
+    }
+
+    @Test
+    void shouldVisitEveryUserWithForEach() {
+        User user1 = userRepository.add(givenUserAlaza());
+        User user2 = userRepository.add(givenUserBako());
+        List<User> visited = new ArrayList<>();
+
+        userRepository.forEach(visited::add);
+
+        assertThat(visited).containsOnly(user1, user2);
+    }
+
+    @Test
+    void shouldPublishChangesForEveryMutation() {
+        User user1 = userRepository.add(givenUserAlaza());
+        User user2 = userRepository.add(givenUserBako());
+        User updated = userRepository.update(new User(user1.getUserId(), user1.getUsername(), "alaza@other.com"));
+        userRepository.deleteAllById(List.of(user1.getUserId(), user2.getUserId()));
+        List<UserChangeEvent> events = new CopyOnWriteArrayList<>();
+
+        userRepository.changes(0).subscribe(collectingSubscriber(events, new CopyOnWriteArrayList<>()));
+        awaitSize(events, 5);
+
+        assertThat(events).extracting(UserChangeEvent::getType).containsExactly(
+                UserChangeEvent.Type.ADDED, UserChangeEvent.Type.ADDED, UserChangeEvent.Type.UPDATED,
+                UserChangeEvent.Type.DELETED, UserChangeEvent.Type.DELETED);
+        assertThat(events.get(2).getBefore().getEmail()).isEqualTo(user1.getEmail());
+        assertThat(events.get(2).getAfter()).isSameAs(updated);
+        assertThat(events.get(4).getBefore()).isEqualTo(user2);
+        assertThat(events.get(4).getAfter()).isNull();
+    }
+
+    @Test
+    void shouldResumeChangesFromSequence() {
+        userRepository.add(givenUserAlaza());
+        userRepository.add(givenUserBako());
+        List<UserChangeEvent> events = new CopyOnWriteArrayList<>();
+
+        userRepository.changes(1).subscribe(collectingSubscriber(events, new CopyOnWriteArrayList<>()));
+        User aminou = userRepository.add(givenUserAminou());
+        awaitSize(events, 2);
+
+        assertThat(events).extracting(UserChangeEvent::getSequence).containsExactly(2L, 3L);
+        assertThat(events.get(1).getAfter()).isSameAs(aminou);
+    }
+
+    @Test
+    void shouldFailChangesWhenSequenceNoLongerRetained() {
+        UserRepository repository = new UserRepositoryImpl(2);
+        repository.add(givenUserAlaza());
+        repository.add(givenUserBako());
+        repository.add(givenUserAminou());
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+        repository.changes(0).subscribe(collectingSubscriber(new CopyOnWriteArrayList<>(), errors));
+        awaitSize(errors, 1);
+
+        assertThat(errors).singleElement().isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void shouldCancelSubscriberWhenItThrows() {
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        List<UserChangeEvent> events = new CopyOnWriteArrayList<>();
+        userRepository.changes(0).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(UserChangeEvent item) {
+                throw new IllegalStateException("Broken subscriber!");
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        userRepository.changes(0).subscribe(collectingSubscriber(events, new CopyOnWriteArrayList<>()));
+
+        userRepository.add(givenUserAlaza());
+        userRepository.add(givenUserBako());
+        awaitSize(errors, 1);
+        awaitSize(events, 2);
+
+        assertThat(errors).hasSize(1);
+        assertThat(errors.get(0)).isInstanceOf(IllegalStateException.class).hasMessage("Broken subscriber!");
+    }
+
+    @Test
+    void shouldNotBlockWritesWhenSubscriberIsSlow() throws InterruptedException {
+        CountDownLatch delivering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        userRepository.changes(0).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(UserChangeEvent item) {
+                delivering.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        try {
+            userRepository.add(givenUserAlaza());
+            delivering.await();
+
+            assertTimeoutPreemptively(Duration.ofSeconds(5), () -> userRepository.add(givenUserBako()));
+            assertThat(userRepository.lastSequence()).isEqualTo(2);
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void shouldNotSeeLaterWritesInSnapshot() {
+        User alaza = userRepository.add(givenUserAlaza());
+        User bako = userRepository.add(givenUserBako());
+
+        try (UserSnapshot snapshot = userRepository.snapshot()) {
+            userRepository.update(new User(alaza.getUserId(), alaza.getUsername(), "alaza@other.com"));
+            User aminou = userRepository.add(givenUserAminou());
+            userRepository.deleteById(bako.getUserId());
+
+            assertThat(snapshot.count()).isEqualTo(2);
+            assertThat(snapshot.findAll()).containsOnly(alaza, bako);
+            assertThat(snapshot.findById(alaza.getUserId())).get().extracting(User::getEmail).isEqualTo("alaza@alaza.com");
+            assertThat(snapshot.findByUsername(bako.getUsername())).isNotEmpty();
+            assertThat(snapshot.findById(aminou.getUserId())).isEmpty();
+        }
+        assertThat(userRepository.findAll()).hasSize(2);
+    }
+
+    @Test
+    void shouldKeepEachSnapshotAtItsOwnVersion() {
+        User alaza = userRepository.add(givenUserAlaza());
+        UserSnapshot first = userRepository.snapshot();
+        userRepository.update(new User(alaza.getUserId(), alaza.getUsername(), "alaza@second.com"));
+        UserSnapshot second = userRepository.snapshot();
+        userRepository.update(new User(alaza.getUserId(), alaza.getUsername(), "alaza@third.com"));
+
+        first.close();
+
+        assertThat(second.findByEmail("alaza@second.com")).isNotEmpty();
+        assertThat(userRepository.findByEmail("alaza@third.com")).isNotEmpty();
+        second.close();
+    }
+
+    @Test
+    void shouldThrowExceptionWhenReadingClosedSnapshot() {
+        UserSnapshot snapshot = userRepository.snapshot();
+        snapshot.close();
+        String message = "Snapshot already closed";
+
+        assertExceptionThrown(IllegalStateException.class, snapshot::findAll, message);
+    }
+
+    @Test
+    void shouldReportIndexStats() {
+        userRepository.add(new User("alaza", "alaza@example.com"));
+        userRepository.add(new User("bako", "bako@example.com"));
+        userRepository.add(givenUserAminou());
+
+        RepositoryStats stats = userRepository.stats();
+
+        assertThat(stats.getUserCount()).isEqualTo(3);
+        assertThat(stats.getIndex("id").getEntries()).isEqualTo(3);
+        assertThat(stats.getIndex("email").getEntries()).isEqualTo(3);
+        assertThat(stats.getIndex("username").getMaxChainLength()).isGreaterThanOrEqualTo(1);
+        assertThat(stats.getIndex("emailDomain").getEntries()).isEqualTo(2);
+        assertThat(stats.getIndex("id").getLoadFactor()).isBetween(0.0, 0.75);
+        assertThat(stats.getEstimatedBytes()).isPositive();
+    }
+
+    @Test
+    void shouldServeEveryIndexWhenBootstrapped() {
+        UserRepositoryImpl repository = new UserRepositoryImpl();
+        List<User> dataset = givenDataset(1000);
+
+        BootstrapResult result = repository.bootstrap(dataset);
+
+        assertThat(result.isReady()).isTrue();
+        assertThat(result.getUserCount()).isEqualTo(1000);
+        assertThat(repository.count()).isEqualTo(1000);
+        assertThat(repository.findById(500)).contains(dataset.get(499));
+        assertThat(repository.findByEmail("user500@example.com")).contains(dataset.get(499));
+        assertThat(repository.findByUsername("user500")).contains(dataset.get(499));
+        assertThat(repository.countByEmailDomain("example.com")).isEqualTo(1000);
+        assertThat(repository.add(givenUserAlaza()).getUserId()).isEqualTo(1001);
+    }
+
+    @Test
+    void shouldServeEveryIndexWhenBootstrappedLazily() {
+        UserRepositoryImpl repository = new UserRepositoryImpl();
+
+        BootstrapResult result = repository.bootstrapLazily(givenDataset(1000));
+
+        assertThat(repository.findById(1)).isPresent();
+        assertThat(repository.findByUsername("user1000")).map(User::getUserId).contains(1000);
+        assertThat(result.awaitReady()).isGreaterThanOrEqualTo(result.getPrimaryIndexTime());
+    }
+
+    @Test
+    void shouldThrowExceptionWhenBootstrappingNonEmptyRepository() {
+        UserRepositoryImpl repository = new UserRepositoryImpl();
+        repository.add(givenUserAlaza());
+        String message = "Repository must be empty to bootstrap!";
+
+        assertExceptionThrown(IllegalStateException.class, () -> repository.bootstrap(givenDataset(10)), message);
+    }
+
+    @Test
+    void shouldLeaveRepositoryEmptyWhenBootstrappingDuplicates() {
+        UserRepositoryImpl repository = new UserRepositoryImpl();
+        List<User> dataset = new ArrayList<>(givenDataset(10));
+        dataset.add(new User(11, "user1", "other@example.com"));
+        String message = "User already exists!";
+
+        assertExceptionThrown(DuplicateUserException.class, () -> repository.bootstrap(dataset), message);
+        assertThat(repository.count()).isEqualTo(0);
+        assertThat(repository.findByUsername("user1")).isEmpty();
+    }
+
+    @Test
+    void shouldLeaveRepositoryUsableWhenLazyBootstrapFindsDuplicates() {
+        UserRepositoryImpl repository = new UserRepositoryImpl();
+        List<User> dataset = new ArrayList<>(givenDataset(1000));
+        dataset.add(new User(1001, "user1001", "user1@example.com"));
+
+        BootstrapResult result = repository.bootstrapLazily(dataset);
+
+        assertExceptionThrown(DuplicateUserException.class, result::awaitReady, "User already exists!");
+        assertThat(repository.count()).isEqualTo(0);
+        assertThat(repository.findByEmail("user1@example.com")).isEmpty();
+        User alaza = repository.add(givenUserAlaza());
+        assertThat(repository.findByEmail(alaza.getEmail())).contains(alaza);
+    }
+
+    @Test
+    void shouldRestoreDeletedUserWithinUndeleteWindow() {
+        UserRepositoryImpl repository = givenRepositoryWithUndeleteWindow(Duration.ofMinutes(1));
+        User alaza = repository.add(givenUserAlaza());
+        repository.deleteByEmail(alaza.getEmail());
+
+        assertThat(repository.findByEmail(alaza.getEmail())).isEmpty();
+        assertThat(repository.count()).isEqualTo(0);
+
+        User restored = repository.undeleteById(alaza.getUserId());
+
+        assertThat(restored).isEqualTo(alaza);
+        assertThat(repository.findByUsername(alaza.getUsername())).contains(alaza);
+        assertThat(repository.count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenUndeletingWithoutUndeleteWindow() {
+        UserRepositoryImpl repository = new UserRepositoryImpl();
+        User alaza = repository.add(givenUserAlaza());
+        repository.deleteById(alaza.getUserId());
+        String message = "No deleted user to restore!";
+
+        assertExceptionThrown(UserNotFoundException.class, () -> repository.undeleteById(alaza.getUserId()), message);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenUndeletingUserWhoseEmailWasTaken() {
+        UserRepositoryImpl repository = givenRepositoryWithUndeleteWindow(Duration.ofMinutes(1));
+        User alaza = repository.add(givenUserAlaza());
+        repository.deleteById(alaza.getUserId());
+        User newAlaza = repository.add(new User("baba.alaza", alaza.getEmail()));
+        String message = "User already exists!";
+
+        assertExceptionThrown(DuplicateUserException.class, () -> repository.undeleteById(alaza.getUserId()), message);
+        assertThat(newAlaza.getUserId()).isNotEqualTo(alaza.getUserId());
+        assertThat(repository.findByEmail(alaza.getEmail())).contains(newAlaza);
+    }
+
+    @Test
+    void shouldShrinkTombstoneBacklogAsDeletesGoOn() {
+        for (int i = 0; i < 13; i++) {
+            userRepository.add(new User("user" + i, "user" + i + "@example.com"));
+        }
+        try (UserSnapshot snapshot = userRepository.snapshot()) {
+            for (int userId = 1; userId <= 10; userId++) {
+                userRepository.deleteById(userId);
+            }
+            assertThat(snapshot.count()).isEqualTo(13);
+        }
+
+        userRepository.deleteAllById(List.of(11, 12, 13));
+
+        assertThat(((UserRepositoryImpl) userRepository).purgeTombstones(Integer.MAX_VALUE)).isLessThanOrEqualTo(1);
+    }
+
+    @Test
+    void shouldPurgeTombstonesOnceUndeleteWindowIsOver() throws InterruptedException {
+        UserRepositoryImpl repository = givenRepositoryWithUndeleteWindow(Duration.ofMillis(1));
+        User alaza = repository.add(givenUserAlaza());
+        User bako = repository.add(givenUserBako());
+        repository.deleteAllById(List.of(alaza.getUserId(), bako.getUserId()));
+        assertThat(repository.stats().getIndex("email").getEntries()).isEqualTo(2);
+        Thread.sleep(5);
+
+        int purged = repository.purgeTombstones(10);
+
+        assertThat(purged).isEqualTo(2);
+        assertThat(repository.stats().getIndex("id").getEntries()).isEqualTo(0);
+        assertThat(repository.stats().getIndex("email").getEntries()).isEqualTo(0);
+        assertExceptionThrown(UserNotFoundException.class, () -> repository.undeleteById(alaza.getUserId()), "No deleted user");
+    }
+
+    @Test
+    void shouldNotReuseIdOfDeletedUser() {
+        User alaza = userRepository.add(givenUserAlaza());
+        userRepository.deleteById(alaza.getUserId());
+
+        User bako = userRepository.add(givenUserBako());
+
+        assertThat(bako.getUserId()).isGreaterThan(alaza.getUserId());
+    }
+
+    @Test
+    void shouldAnswerConjunctionThroughCheapestIndex() {
+        userRepository.add(new User("alaza", "alaza@example.com"));
+        userRepository.add(new User("albert", "albert@other.com"));
+        userRepository.add(new User("aminou", "aminou@example.com"));
+        UserQuery query = UserQuery.where(UserQuery.and(UserQuery.usernameStartsWith("al"), UserQuery.emailDomain("example.com")));
+
+        List<User> found = userRepository.find(query);
+        QueryPlan plan = userRepository.explain(query);
+
+        assertThat(found).extracting(User::getUsername).containsExactly("alaza");
+        assertThat(plan.isScan()).isFalse();
+        assertThat(plan.toString()).contains("EmailDomainLookup emailDomain = 'example.com' (rows=2)");
+    }
+
+    @Test
+    void shouldUnionIndexesWhenEveryAlternativeIsIndexed() {
+        User alaza = userRepository.add(givenUserAlaza());
+        userRepository.add(givenUserBako());
+        User aminou = userRepository.add(givenUserAminou());
+        UserQuery query = UserQuery.where(UserQuery.emailEquals(aminou.getEmail()).or(UserQuery.usernameEquals(alaza.getUsername())));
+
+        List<User> found = userRepository.find(query);
+        QueryPlan plan = userRepository.explain(query).getInputs().get(0).getInputs().get(0);
+
+        assertThat(found).containsExactly(alaza, aminou);
+        assertThat(plan.getOperator()).isEqualTo("Union");
+        assertThat(plan.getEstimatedRows()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldScanWhenNoIndexCanAnswerQuery() {
+        userRepository.add(givenUserAlaza());
+        userRepository.add(givenUserBako());
+        UserQuery query = UserQuery.where(UserQuery.usernameStartsWith("ba").or(UserQuery.emailEquals("alaza@alaza.com")));
+
+        List<User> found = userRepository.find(query);
+
+        assertThat(found).extracting(User::getUsername).containsExactly("alaza", "bako");
+        assertThat(userRepository.explain(query).isScan()).isTrue();
+    }
+
+    @Test
+    void shouldPageQueryResultsInIdOrder() {
+        for (int i = 0; i < 10; i++) {
+            userRepository.add(new User("user" + i, "user" + i + "@example.com"));
+        }
+        UserQuery query = UserQuery.where(UserQuery.idBetween(3, 8)).offset(2).limit(3);
+
+        List<User> found = userRepository.find(query);
+
+        assertThat(found).extracting(User::getUserId).containsExactly(5, 6, 7);
+        assertThat(userRepository.explain(query).getEstimatedRows()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldFindUsersByIdRangeInBothOrders() {
+        for (int i = 0; i < 10; i++) {
+            userRepository.add(new User("user" + i, "user" + i + "@example.com"));
+        }
+        userRepository.deleteById(4);
+
+        assertThat(userRepository.findByIdRange(3, 8, 3)).extracting(User::getUserId).containsExactly(3, 5, 6);
+        assertThat(userRepository.findByIdRangeDescending(3, 8, 3)).extracting(User::getUserId).containsExactly(8, 7, 6);
+        assertThat(userRepository.findByIdRange(8, 3, 3)).isEmpty();
+    }
+
+    @Test
+    void shouldPageThroughIdsWithKeyset() {
+        for (int i = 0; i < 7; i++) {
+            userRepository.add(new User("user" + i, "user" + i + "@example.com"));
+        }
+
+        List<User> firstPage = userRepository.findByIdRange(Integer.MIN_VALUE, Integer.MAX_VALUE, 3);
+        userRepository.deleteById(firstPage.get(0).getUserId());
+        int lastId = firstPage.get(firstPage.size() - 1).getUserId();
+        List<User> secondPage = userRepository.findByIdRange(lastId + 1, Integer.MAX_VALUE, 3);
+        List<User> lastPage = userRepository.findByIdRange(secondPage.get(2).getUserId() + 1, Integer.MAX_VALUE, 3);
+
+        assertThat(firstPage).extracting(User::getUserId).containsExactly(1, 2, 3);
+        assertThat(secondPage).extracting(User::getUserId).containsExactly(4, 5, 6);
+        assertThat(lastPage).extracting(User::getUserId).containsExactly(7);
+    }
+
+    @Test
+    void shouldThrowExceptionWhenIdRangeLimitIsInvalid() {
+        String message = "Invalid page specified!";
+
+        assertExceptionThrown(IllegalArgumentException.class, () -> userRepository.findByIdRange(1, 10, 0), message);
+    }
+
     private <T> void assertExceptionThrown(Class<? extends RuntimeException> exceptionClass, ThrowableAssert.ThrowingCallable throwingCallable, String message) {
         assertThatExceptionOfType(exceptionClass).isThrownBy(throwingCallable) // Adding second user
                 .withMessageContaining(message);
     }
 
+    private void awaitSize(List<?> elements, int size) {
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            while (elements.size() < size) {
+                Thread.onSpinWait();
+            }
+        });
+    }
+
+    private Flow.Subscriber<UserChangeEvent> collectingSubscriber(List<UserChangeEvent> events, List<Throwable> errors) {
+        return new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(UserChangeEvent item) {
+                events.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        };
+    }
+
     private void assertSameUsername(User user, String expectedUsername) {
         assertThat(user.getUsername()).isEqualTo(expectedUsername);
     }
@@ -545,6 +1232,19 @@ class UserRepositoryTest {
         assertSameEmail(user.get(), expectedEmail);
     }
 
+    private UserRepositoryImpl givenRepositoryWithUndeleteWindow(Duration undeleteWindow) {
+        return new UserRepositoryImpl(UserRepositoryImpl.DEFAULT_CHANGE_LOG_CAPACITY, UserKeyNormalizer.exact(),
+                undeleteWindow);
+    }
+
+    private List<User> givenDataset(int size) {
+        List<User> dataset = new ArrayList<>(size);
+        for (int id = 1; id <= size; id++) {
+            dataset.add(new User(id, "user" + id, "user" + id + "@example.com"));
+        }
+        return dataset;
+    }
+
     private User givenUserAlaza() {
         return new User("alaza", "alaza@alaza.com");
     }
@@ -0,0 +1,62 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Drives the RPC server over loopback with {@link UserLoadGenerator}. Run with {@code mvn test -Pbenchmark}; the
+ * latency and throughput figures are printed, not asserted.
+ */
+@Tag("benchmark")
+class UserRpcBenchmarkTest {
+
+    private final UserService userService = new UserServiceImpl(new UserRepositoryImpl());
+    private final UserRpcServer server = new UserRpcServer(userService,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+    private final UserRpcClient client = UserRpcClient.connect(server.getAddress(), Duration.ofSeconds(5));
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void shouldReportLoopbackLatencyAndThroughput() {
+        UserLoadGenerator generator = new UserLoadGenerator(client,
+                Map.of(UserLoadGenerator.Operation.GET_BY_ID, 8, UserLoadGenerator.Operation.GET_BY_EMAIL, 1,
+                        UserLoadGenerator.Operation.UPDATE, 1),
+                KeyDistribution.zipfian(1000, 0.99), 4, 0, Duration.ofSeconds(1));
+
+        generator.run(Duration.ofSeconds(2));
+        LoadReport report = generator.run(Duration.ofSeconds(10));
+
+        System.out.println("Loopback RPC: " + report);
+        assertThat(report.getErrors()).isZero();
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
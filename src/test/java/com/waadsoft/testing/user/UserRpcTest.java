@@ -0,0 +1,142 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class UserRpcTest {
+
+    private final UserService userService = new UserServiceImpl(new UserRepositoryImpl());
+    private final UserRpcServer server = new UserRpcServer(userService,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4);
+    private final UserRpcClient client = UserRpcClient.connect(server.getAddress(), Duration.ofSeconds(5));
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void shouldServeUserServiceThroughClient() {
+        User alaza = client.addUser(givenUserAlaza());
+        User bako = client.addUser(givenUserBako());
+        User updated = client.updateUser(new User(alaza.getUserId(), alaza.getUsername(), "alaza@other.com"));
+        client.deleteUserByUsername(bako.getUsername());
+
+        assertThat(client.getUserById(alaza.getUserId())).contains(updated);
+        assertThat(client.getUserByEmail("alaza@other.com")).contains(updated);
+        assertThat(client.getUserByUsername(bako.getUsername())).isEmpty();
+        assertThat(client.getUsers()).containsExactly(updated);
+        assertThat(client.countUsers()).isEqualTo(1);
+        assertThat(userService.getUsers()).containsExactly(updated);
+    }
+
+    @Test
+    void shouldAnswerMultiGetInOneCall() {
+        User alaza = client.addUser(givenUserAlaza());
+        User bako = client.addUser(givenUserBako());
+        User aminou = client.addUser(givenUserAminou());
+
+        assertThat(client.getUsersById(List.of(alaza.getUserId(), aminou.getUserId())))
+                .containsExactlyElementsOf(userService.getUsersById(List.of(alaza.getUserId(), aminou.getUserId())));
+        assertThat(client.getUsersByEmail(List.of(bako.getEmail(), aminou.getEmail())))
+                .containsExactlyInAnyOrder(bako, aminou);
+        assertThat(client.getUsersByUsername(List.of(alaza.getUsername()))).containsExactly(alaza);
+    }
+
+    @Test
+    void shouldRethrowServiceExceptionsOnClient() {
+        client.addUser(givenUserAlaza());
+
+        assertThatExceptionOfType(DuplicateUserException.class)
+                .isThrownBy(() -> client.addUser(givenUserAlaza()))
+                .withMessage("User already exists!");
+        assertThatExceptionOfType(UserNotFoundException.class)
+                .isThrownBy(() -> client.deleteUserById(42));
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> client.addUser(null))
+                .withMessage("Invalid user specified!");
+        assertThat(client.countUsers()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldMultiplexConcurrentCallsOverOneConnection() throws Exception {
+        List<User> added = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            added.add(userService.addUser(new User("user" + i, "user" + i + "@example.com")));
+        }
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int caller = 0; caller < 8; caller++) {
+                int offset = caller;
+                results.add(callers.submit(() -> {
+                    for (int call = 0; call < 500; call++) {
+                        User expected = added.get((offset * 31 + call) % added.size());
+                        if (!client.getUserById(expected.getUserId()).equals(Optional.of(expected))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertThat(result.get()).isTrue();
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldThrowExceptionWhenServerIsGone() {
+        server.close();
+
+        assertThatExceptionOfType(UserRpcException.class)
+                .isThrownBy(client::countUsers);
+    }
+
+    private User givenUserAlaza() {
+        return new User("alaza", "alaza@alaza.com");
+    }
+
+    private User givenUserBako() {
+        return new User("bako", "bako@bako.com");
+    }
+
+    private User givenUserAminou() {
+        return new User("aminou", "aminou@aminou.com");
+    }
+}
+
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/
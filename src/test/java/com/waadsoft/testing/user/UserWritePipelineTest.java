@@ -0,0 +1,90 @@
+package com.waadsoft.testing.user;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class UserWritePipelineTest {
+
+    private final UserRepository userRepository = new UserRepositoryImpl();
+    private final UserWritePipeline writePipeline = new UserWritePipeline(userRepository, 1000, 64, Duration.ofMillis(5));
+
+    @AfterEach
+    void closePipeline() {
+        writePipeline.close();
+    }
+
+    @Test
+    void shouldFailOnlyTheDuplicateAddOfABatch() {
+        CompletableFuture<User> alaza = writePipeline.add(new User("alaza", "alaza@alaza.com"));
+        CompletableFuture<User> duplicate = writePipeline.add(new User("baba.alaza", "alaza@alaza.com"));
+        CompletableFuture<User> bako = writePipeline.add(new User("bako", "bako@bako.com"));
+
+        assertThat(alaza.join().getUserId()).isNotNull();
+        assertThat(bako.join().getUserId()).isNotNull();
+        assertThatExceptionOfType(CompletionException.class)
+                .isThrownBy(duplicate::join)
+                .withCauseInstanceOf(DuplicateUserException.class);
+        assertThat(userRepository.count()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldApplyWritesOfAKeyInOrder() {
+        CompletableFuture<User> added = writePipeline.add(new User("alaza", "alaza@alaza.com"));
+        CompletableFuture<User> updated = writePipeline.update(new User(1, "alaza", "alaza@other.com"));
+        CompletableFuture<Void> deleted = writePipeline.deleteByEmail("alaza@other.com");
+
+        CompletableFuture.allOf(added, updated, deleted).join();
+
+        assertThat(updated.join().getEmail()).isEqualTo("alaza@other.com");
+        assertThat(userRepository.count()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldAddEveryUserWrittenConcurrently() {
+        List<CompletableFuture<User>> writes = IntStream.range(0, 500)
+                .parallel()
+                .mapToObj(i -> writePipeline.add(new User("user" + i, "user" + i + "@example.com")))
+                .collect(Collectors.toList());
+
+        CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+
+        assertThat(userRepository.count()).isEqualTo(500);
+        assertThat(writes.stream().map(write -> write.join().getUserId()).distinct().count()).isEqualTo(500);
+    }
+
+    @Test
+    void shouldRejectWritesOnceClosed() {
+        writePipeline.close();
+
+        assertThatExceptionOfType(CompletionException.class)
+                .isThrownBy(() -> writePipeline.add(new User("alaza", "alaza@alaza.com")).join())
+                .withMessageContaining("Write pipeline closed");
+    }
+}
+
+
+/*=============================================================================
+ * Copyright 2023 Waad Soft<https://www.waadsoft.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ =============================================================================*/